@@ -0,0 +1,115 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * {@link ChatService#sendMessage} over in-memory repository stubs, so the
+ * score is the service's own overhead: room validation through the cache,
+ * the save call, activity tracking and the live feed.
+ */
+@State(Scope.Benchmark)
+public class ChatServiceSendMessageBenchmark {
+
+    private static final long ROOM_ID = 1L;
+
+    @Param({"false", "true"})
+    boolean followed;
+
+    ChatService chatService;
+    Disposable follower;
+
+    @Setup
+    public void setUp() {
+        ChatProperties properties = new ChatProperties();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ChatRoom room = ChatRoom.builder()
+                .id(ROOM_ID)
+                .customerId("customer")
+                .employeeId("employee")
+                .status(ChatRoomStatus.ASSIGNED)
+                .build();
+        AtomicLong ids = new AtomicLong();
+
+        ChatRoomRepository roomRepository = stub(ChatRoomRepository.class, Map.of(
+                "findById", args -> Mono.just(room),
+                "touchLastModifiedDate", args -> Mono.empty()));
+        ChatMessageRepository messageRepository = stub(ChatMessageRepository.class, Map.of(
+                "insert", args -> Mono.fromSupplier(() -> ChatMessage.builder()
+                        .id(ids.incrementAndGet())
+                        .roomId((Long) args[0])
+                        .senderId((String) args[1])
+                        .senderType(SenderType.valueOf((String) args[2]))
+                        .content((String) args[3])
+                        .messageType(MessageType.valueOf((String) args[4]))
+                        .timestamp((Instant) args[5])
+                        .read((Boolean) args[6])
+                        .seq(ids.get())
+                        .build())));
+
+        ChatMessageFeed messageFeed = new ChatMessageFeed();
+        chatService = new ChatService(
+                roomRepository,
+                messageRepository,
+                new ChatRoomCache(properties, meterRegistry),
+                new ChatMessageBatchWriter(properties, null, meterRegistry),
+                new RoomActivityTracker(properties, roomRepository, meterRegistry),
+                properties,
+                messageFeed,
+                new RepositoryMetrics(meterRegistry),
+                new RecentMessageCache(properties, meterRegistry));
+
+        if (followed) {
+            follower = messageFeed.room(ROOM_ID).subscribe();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (follower != null) {
+            follower.dispose();
+        }
+    }
+
+    @Benchmark
+    public ChatMessage sendMessage() {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(ROOM_ID);
+        message.setSenderType(SenderType.CUSTOMER);
+        message.setContent("Hi, is the second edition of this book still in stock?");
+        message.setMessageType(MessageType.TEXT);
+        return chatService.sendMessage(message, "customer").block();
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> repository, Map<String, Function<Object[], Object>> methods) {
+        return (T) Proxy.newProxyInstance(repository.getClassLoader(), new Class<?>[]{repository},
+                (proxy, method, args) -> {
+                    Function<Object[], Object> implementation = methods.get(method.getName());
+                    if (implementation != null) {
+                        return implementation.apply(args);
+                    }
+                    return switch (method.getName()) {
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        case "toString" -> repository.getSimpleName() + "Stub";
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    };
+                });
+    }
+}
@@ -0,0 +1,93 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.chat.domain.MessageType;
+import com.bookshop.chat_service.chat.domain.SenderType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encode-once fan-out of one room message to fake sessions whose outbound
+ * queues are drained as fast as they fill.
+ */
+@State(Scope.Benchmark)
+public class BroadcastFanOutBenchmark {
+
+    @Param({"1", "10", "1000"})
+    int sessions;
+
+    @Param({JsonWebSocketCodec.SUB_PROTOCOL, BinaryWebSocketCodec.SUB_PROTOCOL})
+    String subProtocol;
+
+    BroadcastFanOut broadcast;
+    List<ChatSession> recipients;
+    WebSocketMessage message;
+    Disposable.Composite drains;
+
+    @Setup
+    public void setUp() {
+        ChatProperties properties = new ChatProperties();
+        ChatWebSocketMetrics metrics = new ChatWebSocketMetrics(new SimpleMeterRegistry());
+        WebSocketCodecs codecs = new WebSocketCodecs(Jackson2ObjectMapperBuilder.json().build());
+        broadcast = new BroadcastFanOut(metrics);
+
+        recipients = new ArrayList<>(sessions);
+        drains = Disposables.composite();
+        for (int i = 0; i < sessions; i++) {
+            ChatSession session = new ChatSession("user-" + i, fakeSession("session-" + i),
+                    codecs.negotiated(subProtocol), properties.getOutbound(), metrics);
+            drains.add(session.getOutbound().frames()
+                    .subscribe(frame -> DataBufferUtils.release(frame.getPayload())));
+            recipients.add(session);
+        }
+
+        message = new WebSocketMessage();
+        message.setType("NEW_MESSAGE");
+        message.setRoomId(123_456L);
+        message.setMessageId(98_765_432L);
+        message.setSenderId("customer");
+        message.setSenderType(SenderType.CUSTOMER);
+        message.setMessageType(MessageType.TEXT);
+        message.setContent("Hi, is the second edition of this book still in stock?");
+        message.setTimestamp(Instant.now());
+    }
+
+    @TearDown
+    public void tearDown() {
+        drains.dispose();
+    }
+
+    @Benchmark
+    public void fanOut() {
+        broadcast.send(recipients, message);
+    }
+
+    static WebSocketSession fakeSession(String id) {
+        return (WebSocketSession) Proxy.newProxyInstance(WebSocketSession.class.getClassLoader(),
+                new Class<?>[]{WebSocketSession.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "isOpen" -> true;
+                    case "close" -> Mono.empty();
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "FakeWebSocketSession[" + id + "]";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
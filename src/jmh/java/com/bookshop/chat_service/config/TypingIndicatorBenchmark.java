@@ -0,0 +1,69 @@
+package com.bookshop.chat_service.config;
+
+import io.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Churn of typing indicators across many rooms: start/stop pairs, debounced
+ * repeats of an active indicator, and disconnect cleanup.
+ */
+@State(Scope.Benchmark)
+public class TypingIndicatorBenchmark {
+
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    @Param({"100", "10000"})
+    int rooms;
+
+    HashedWheelTimer timer;
+    TypingIndicatorTracker tracker;
+
+    @Setup
+    public void setUp() {
+        timer = new HashedWheelTimer();
+        tracker = new TypingIndicatorTracker(new ChatProperties(), timer);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Benchmark
+    public boolean typingThenStop(User user) {
+        long roomId = user.nextRoom(rooms);
+        tracker.typing(roomId, user.id);
+        return tracker.stopped(roomId, user.id);
+    }
+
+    @Benchmark
+    public boolean repeatedTyping(User user) {
+        return tracker.typing(user.nextRoom(rooms) % 8, user.id);
+    }
+
+    @Benchmark
+    public List<Long> disconnect(User user) {
+        for (int i = 0; i < 3; i++) {
+            tracker.typing(user.nextRoom(rooms), user.id);
+        }
+        return tracker.removeUser(user.id);
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+        final String id = "user-" + USERS.incrementAndGet();
+
+        long nextRoom(int rooms) {
+            return ThreadLocalRandom.current().nextInt(rooms);
+        }
+    }
+}
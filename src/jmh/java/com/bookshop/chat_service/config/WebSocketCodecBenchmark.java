@@ -0,0 +1,103 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.chat.domain.MessageType;
+import com.bookshop.chat_service.chat.domain.SenderType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Parse and serialize cost of one {@link WebSocketMessage} per codec. The
+ * {@code bytes} secondary metric of {@link #serialize} divided by its score
+ * is the encoded size of one frame.
+ */
+@State(Scope.Thread)
+public class WebSocketCodecBenchmark {
+
+    @Param({JsonWebSocketCodec.SUB_PROTOCOL, BinaryWebSocketCodec.SUB_PROTOCOL})
+    String subProtocol;
+
+    @Param({"NEW_MESSAGE", "USER_TYPING"})
+    String type;
+
+    WebSocketCodec codec;
+    WebSocketMessage message;
+    byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = new WebSocketCodecs(Jackson2ObjectMapperBuilder.json().build()).negotiated(subProtocol);
+        message = "NEW_MESSAGE".equals(type) ? newMessage() : typing();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(message, out);
+        encoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public int serialize(FrameBytes frameBytes) throws IOException {
+        ByteBuf payload = PooledByteBufAllocator.DEFAULT.buffer();
+        try (ByteBufOutputStream out = new ByteBufOutputStream(payload)) {
+            codec.encode(message, out);
+            int size = payload.readableBytes();
+            frameBytes.bytes += size;
+            return size;
+        } finally {
+            payload.release();
+        }
+    }
+
+    @Benchmark
+    public WebSocketMessage parse() throws IOException {
+        return codec.decode(new ByteArrayInputStream(encoded));
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class FrameBytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private static WebSocketMessage newMessage() {
+        WebSocketMessage message = new WebSocketMessage();
+        message.setType("NEW_MESSAGE");
+        message.setRoomId(123_456L);
+        message.setMessageId(98_765_432L);
+        message.setSenderId("2f6c1a4e-9b7d-4c1e-8a53-7d2b9e0f4a11");
+        message.setSenderType(SenderType.CUSTOMER);
+        message.setMessageType(MessageType.TEXT);
+        message.setContent("Hi, is the second edition of this book still in stock?");
+        message.setTimestamp(Instant.parse("2025-01-02T03:04:05.123456Z"));
+        return message;
+    }
+
+    private static WebSocketMessage typing() {
+        WebSocketMessage message = new WebSocketMessage();
+        message.setType("USER_TYPING");
+        message.setRoomId(123_456L);
+        message.setSenderId("2f6c1a4e-9b7d-4c1e-8a53-7d2b9e0f4a11");
+        message.setSenderType(SenderType.CUSTOMER);
+        message.setIsTyping(true);
+        message.setTypingUserId("2f6c1a4e-9b7d-4c1e-8a53-7d2b9e0f4a11");
+        message.setTimestamp(Instant.parse("2025-01-02T03:04:05.123456Z"));
+        return message;
+    }
+}
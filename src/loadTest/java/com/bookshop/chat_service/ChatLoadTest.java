@@ -0,0 +1,278 @@
+package com.bookshop.chat_service;
+
+import com.bookshop.chat_service.chat.domain.ChatRoom;
+import com.bookshop.chat_service.chat.domain.SenderType;
+import com.bookshop.chat_service.config.WebSocketMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Opens a customer and an employee WebSocket per chat, pairs them through
+ * the REST API and replays typing and message traffic in both directions.
+ * Reports delivered throughput, send-to-receive latency percentiles, and
+ * heap and GC usage of the JVM, which hosts both the server and the clients.
+ * <p>
+ * Run with {@code ./gradlew loadTest -Dloadtest.chats=2000 -Dloadtest.duration=PT2M}.
+ */
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ChatLoadTest {
+
+	private static final String CONTENT_PREFIX = "lt:";
+	private static final Duration TYPING_INTERVAL = Duration.ofSeconds(1);
+	private static final Duration REPORT_INTERVAL = Duration.ofSeconds(10);
+	private static final Duration DRAIN_GRACE = Duration.ofSeconds(5);
+	private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+	private final int chats = Integer.getInteger("loadtest.chats", 1000);
+	private final Duration duration = Duration.parse(System.getProperty("loadtest.duration", "PT1M"));
+	private final Duration thinkTime = Duration.parse(System.getProperty("loadtest.think-time", "PT5S"));
+	private final int typingFrames = Integer.getInteger("loadtest.typing-frames", 3);
+	private final long p99TargetMillis = Long.getLong("loadtest.p99-target-ms", 100);
+
+	private final Recorder latency = new Recorder(MAX_LATENCY_MICROS, 3);
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	@Test
+	void holdsConcurrentChats() throws InterruptedException {
+		WebClient webClient = WebClient.create("http://localhost:" + port);
+		ReactorNettyWebSocketClient webSocketClient = new ReactorNettyWebSocketClient();
+
+		List<Participant> participants = pairParticipants(webClient);
+		System.out.printf("Paired %d chats%n", chats);
+
+		Sinks.Empty<Void> start = Sinks.empty();
+		Disposable.Composite sessions = Disposables.composite();
+		Flux.fromIterable(participants)
+				.flatMap(participant -> connect(webSocketClient, participant, start.asMono(), sessions), 128)
+				.blockLast(Duration.ofMinutes(2));
+		System.out.printf("Connected %d sessions%n", participants.size());
+
+		GcSnapshot gcBefore = GcSnapshot.take();
+		ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+		Histogram total = new Histogram(MAX_LATENCY_MICROS, 3);
+		long startedAt = System.nanoTime();
+		start.tryEmitEmpty();
+
+		long deadline = startedAt + duration.plus(DRAIN_GRACE).toNanos();
+		while (System.nanoTime() < deadline) {
+			Thread.sleep(Math.min(REPORT_INTERVAL.toMillis(),
+					TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) + 1));
+			Histogram interval = latency.getIntervalHistogram();
+			total.add(interval);
+			printInterval(interval, System.nanoTime() - startedAt);
+		}
+
+		sessions.dispose();
+		printSummary(total, GcSnapshot.take().minus(gcBefore));
+
+		assertThat(errors.get()).as("session errors").isZero();
+		assertThat(total.getTotalCount()).as("delivered messages").isPositive();
+		assertThat(total.getValueAtPercentile(99.0))
+				.as("p99 send-to-receive latency in microseconds")
+				.isLessThan(TimeUnit.MILLISECONDS.toMicros(p99TargetMillis));
+	}
+
+	private List<Participant> pairParticipants(WebClient webClient) {
+		return Flux.range(0, chats)
+				.flatMap(i -> webClient.post().uri("/chats/rooms")
+						.bodyValue(Map.of("customerId", "load-customer-" + i))
+						.retrieve()
+						.bodyToMono(ChatRoom.class)
+						.flatMap(room -> webClient.put().uri("/chats/rooms/{roomId}/assign", room.getId())
+								.bodyValue(Map.of("employeeId", "load-employee-" + i))
+								.retrieve()
+								.bodyToMono(ChatRoom.class)), 32)
+				.flatMapIterable(room -> List.of(
+						new Participant(room.getId(), room.getCustomerId(), SenderType.CUSTOMER),
+						new Participant(room.getId(), room.getEmployeeId(), SenderType.EMPLOYEE)))
+				.collectList()
+				.block(Duration.ofMinutes(5));
+	}
+
+	/**
+	 * Completes once the WebSocket handshake of the participant succeeded.
+	 */
+	private Mono<Void> connect(ReactorNettyWebSocketClient client, Participant participant,
+							   Mono<Void> start, Disposable.Composite sessions) {
+		Sinks.Empty<Void> connected = Sinks.empty();
+		URI uri = URI.create("ws://localhost:" + port + "/ws/chats?userId=" + participant.userId);
+
+		sessions.add(client.execute(uri, session -> {
+					connected.tryEmitEmpty();
+					return run(session, participant, start);
+				})
+				.subscribe(null, e -> {
+					errors.incrementAndGet();
+					connected.tryEmitError(e);
+				}));
+		return connected.asMono();
+	}
+
+	private Mono<Void> run(WebSocketSession session, Participant participant, Mono<Void> start) {
+		Mono<Void> inbound = session.receive()
+				.doOnNext(frame -> onFrame(participant, frame.getPayloadAsText()))
+				.then();
+
+		Mono<Void> outbound = session.send(start
+				.thenMany(conversation(participant).take(duration))
+				.map(session::textMessage));
+
+		return Mono.when(inbound, outbound.then(Mono.delay(DRAIN_GRACE)).then(session.close()));
+	}
+
+	/**
+	 * One participant's traffic: think, type for a few seconds, send, stop
+	 * typing, repeat. The send time is carried in the content.
+	 */
+	private Flux<String> conversation(Participant participant) {
+		return Mono.defer(() -> Mono.delay(jittered(thinkTime)))
+				.thenMany(Flux.interval(Duration.ZERO, TYPING_INTERVAL)
+						.take(typingFrames)
+						.map(i -> encode(participant.frame("TYPING", null))))
+				.concatWith(Mono.fromSupplier(() -> {
+					sent.incrementAndGet();
+					return encode(participant.frame("SEND_MESSAGE", CONTENT_PREFIX + System.nanoTime()
+							+ ": do you have the second edition of this book in stock?"));
+				}))
+				.concatWith(Mono.fromSupplier(() -> encode(participant.frame("STOP_TYPING", null))))
+				.repeat();
+	}
+
+	private void onFrame(Participant participant, String payload) {
+		long now = System.nanoTime();
+		received.incrementAndGet();
+
+		WebSocketMessage message;
+		try {
+			message = objectMapper.readValue(payload, WebSocketMessage.class);
+		} catch (Exception e) {
+			errors.incrementAndGet();
+			return;
+		}
+
+		String content = message.getContent();
+		if ("NEW_MESSAGE".equals(message.getType())
+				&& !participant.userId.equals(message.getSenderId())
+				&& content != null && content.startsWith(CONTENT_PREFIX)) {
+			int end = content.indexOf(':', CONTENT_PREFIX.length());
+			long sentAt = Long.parseLong(content.substring(CONTENT_PREFIX.length(), end));
+			long micros = TimeUnit.NANOSECONDS.toMicros(now - sentAt);
+			latency.recordValue(Math.min(Math.max(0, micros), MAX_LATENCY_MICROS));
+			delivered.incrementAndGet();
+		}
+	}
+
+	private String encode(WebSocketMessage message) {
+		try {
+			return objectMapper.writeValueAsString(message);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Duration jittered(Duration mean) {
+		return Duration.ofMillis((long) (mean.toMillis() * ThreadLocalRandom.current().nextDouble(0.5, 1.5)));
+	}
+
+	private void printInterval(Histogram interval, long elapsedNanos) {
+		double seconds = REPORT_INTERVAL.toMillis() / 1000.0;
+		System.out.printf("[%4ds] delivered %8.1f msg/s  p50 %6.1f ms  p99 %6.1f ms  max %6.1f ms%n",
+				TimeUnit.NANOSECONDS.toSeconds(elapsedNanos),
+				interval.getTotalCount() / seconds,
+				interval.getValueAtPercentile(50.0) / 1000.0,
+				interval.getValueAtPercentile(99.0) / 1000.0,
+				interval.getMaxValue() / 1000.0);
+	}
+
+	private void printSummary(Histogram total, GcSnapshot gc) {
+		double seconds = duration.toMillis() / 1000.0;
+		long peakHeap = ManagementFactory.getMemoryPoolMXBeans().stream()
+				.filter(pool -> pool.getType() == MemoryType.HEAP)
+				.mapToLong(pool -> pool.getPeakUsage().getUsed())
+				.sum();
+		long maxHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+
+		System.out.println("==== Chat load test ====");
+		System.out.printf("chats              %d (%d sessions)%n", chats, chats * 2);
+		System.out.printf("duration           %s%n", duration);
+		System.out.printf("messages sent      %d (%.1f/s)%n", sent.get(), sent.get() / seconds);
+		System.out.printf("messages delivered %d (%.1f/s)%n", delivered.get(), delivered.get() / seconds);
+		System.out.printf("frames received    %d (%.1f/s)%n", received.get(), received.get() / seconds);
+		System.out.printf("errors             %d%n", errors.get());
+		System.out.println("send-to-receive latency (ms)");
+		for (double percentile : new double[]{50.0, 90.0, 99.0, 99.9, 99.99}) {
+			System.out.printf("  p%-7s %8.2f%n", percentile, total.getValueAtPercentile(percentile) / 1000.0);
+		}
+		System.out.printf("  max      %8.2f%n", total.getMaxValue() / 1000.0);
+		System.out.printf("heap peak          %d MiB of %d MiB%n", peakHeap >> 20, maxHeap >> 20);
+		System.out.printf("gc                 %d collections, %d ms%n", gc.count, gc.timeMillis);
+	}
+
+	private record Participant(Long roomId, String userId, SenderType senderType) {
+
+		WebSocketMessage frame(String type, String content) {
+			WebSocketMessage message = new WebSocketMessage();
+			message.setType(type);
+			message.setRoomId(roomId);
+			message.setSenderId(userId);
+			message.setSenderType(senderType);
+			message.setContent(content);
+			return message;
+		}
+	}
+
+	private record GcSnapshot(long count, long timeMillis) {
+
+		static GcSnapshot take() {
+			long count = 0;
+			long time = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				count += Math.max(0, gc.getCollectionCount());
+				time += Math.max(0, gc.getCollectionTime());
+			}
+			return new GcSnapshot(count, time);
+		}
+
+		GcSnapshot minus(GcSnapshot other) {
+			return new GcSnapshot(count - other.count, timeMillis - other.timeMillis);
+		}
+	}
+}
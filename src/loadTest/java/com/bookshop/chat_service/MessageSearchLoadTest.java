@@ -0,0 +1,256 @@
+package com.bookshop.chat_service;
+
+import com.bookshop.chat_service.chat.domain.ChatMessage;
+import com.bookshop.chat_service.chat.domain.ChatService;
+import com.bookshop.chat_service.chat.domain.MessageSearchHit;
+import com.bookshop.chat_service.chat.domain.MessageType;
+import com.bookshop.chat_service.chat.domain.SenderType;
+import com.bookshop.chat_service.chat.web.MessageSearchRequest;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Seeds the message table with generated conversations spread over the last
+ * year, then reports message search latency and checks that concurrent
+ * searches leave the latency of storing messages intact. Writes are measured
+ * alone first and then again while searches run. Search latency depends on
+ * the machine and the seeded volume, so it is printed rather than asserted.
+ * <p>
+ * Run with {@code ./gradlew loadTest --tests '*MessageSearchLoadTest' -Dloadtest.search.messages=10000000}.
+ */
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest
+class MessageSearchLoadTest {
+
+	private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+	private static final int MESSAGES_PER_ROOM = 100;
+	private static final int ROOMS_PER_CHUNK = 1000;
+	private static final int CUSTOMERS = 20_000;
+	private static final int EMPLOYEES = 200;
+	private static final String[] WORDS = {
+			"book", "order", "delivery", "refund", "edition", "author", "paperback", "hardcover",
+			"shipping", "address", "invoice", "payment", "card", "discount", "voucher", "stock",
+			"available", "preorder", "cancel", "return", "damaged", "missing", "package", "tracking",
+			"novel", "series", "volume", "translation", "signed", "copy", "gift", "wrap",
+			"thanks", "please", "help", "question", "price", "week", "today", "tomorrow",
+			"store", "pickup", "account", "password", "email", "receipt", "exchange", "late",
+			"cover", "page", "print", "ebook", "audiobook", "children", "history", "science",
+			"fantasy", "mystery", "romance", "poetry", "cookbook", "travel", "biography", "comics"
+	};
+
+	private static final String SEED_ROOMS = """
+			INSERT INTO chat_room (customer_id, employee_id, status, created_date, last_modified_date, version, last_seq)
+			SELECT 'search-customer-' || (g % :customers), 'search-employee-' || (g % :employees), 'ASSIGNED',
+			       LOCALTIMESTAMP, LOCALTIMESTAMP, 0, :perRoom
+			FROM generate_series(1, :rooms) g
+			RETURNING id
+			""";
+
+	// Triggers are off for the seeding transaction, so seq is written directly
+	private static final String SEED_MESSAGES = """
+			INSERT INTO chat_message (room_id, sender_id, sender_type, content, message_type, timestamp, read, seq)
+			SELECT r.id,
+			       CASE WHEN s % 2 = 0 THEN r.customer_id ELSE r.employee_id END,
+			       CASE WHEN s % 2 = 0 THEN 'CUSTOMER' ELSE 'EMPLOYEE' END,
+			       (SELECT string_agg((:words)[1 + floor(random() * cardinality(:words))::INT], ' ')
+			        FROM generate_series(1, 6 + (s + r.id) % 10)),
+			       'TEXT',
+			       LOCALTIMESTAMP - random() * INTERVAL '365 days',
+			       TRUE,
+			       s
+			FROM chat_room r CROSS JOIN generate_series(1, :perRoom) s
+			WHERE r.id BETWEEN :firstRoom AND :lastRoom
+			""";
+
+	private final long messages = Long.getLong("loadtest.search.messages", 10_000_000L);
+	private final Duration duration = Duration.parse(System.getProperty("loadtest.duration", "PT1M"));
+	private final int writers = Integer.getInteger("loadtest.search.writers", 8);
+	private final int searchers = Integer.getInteger("loadtest.search.searchers", 4);
+	private final double writeDegradation = Double.parseDouble(
+			System.getProperty("loadtest.search.write-degradation", "1.5"));
+
+	private final AtomicLong errors = new AtomicLong();
+
+	@Autowired
+	ChatService chatService;
+
+	@Autowired
+	DatabaseClient databaseClient;
+
+	@Autowired
+	TransactionalOperator transactionalOperator;
+
+	@Test
+	void searchesWithoutSlowingDownWrites() {
+		List<Long> roomIds = seed();
+
+		Histogram writesAlone = measure(roomIds, false).writes();
+		Measurement loaded = measure(roomIds, true);
+
+		System.out.println("==== Message search load test ====");
+		System.out.printf("messages           %d in %d rooms%n", messages, roomIds.size());
+		System.out.printf("duration           %s per phase%n", duration);
+		System.out.printf("errors             %d%n", errors.get());
+		print("search latency (ms)", loaded.searches());
+		print("write latency, no searches (ms)", writesAlone);
+		print("write latency, with searches (ms)", loaded.writes());
+
+		assertThat(errors.get()).as("errors").isZero();
+		assertThat(loaded.searches().getTotalCount()).as("searches").isPositive();
+		assertThat((double) loaded.writes().getValueAtPercentile(99.0))
+				.as("p99 write latency with searches in microseconds")
+				.isLessThanOrEqualTo(writesAlone.getValueAtPercentile(99.0) * writeDegradation);
+	}
+
+	private List<Long> seed() {
+		long started = System.nanoTime();
+		int rooms = (int) Math.max(1, messages / MESSAGES_PER_ROOM);
+
+		databaseClient.sql("SELECT create_chat_message_partitions(3, LOCALTIMESTAMP - INTERVAL '13 months')")
+				.then()
+				.block();
+		List<Long> roomIds = databaseClient.sql(SEED_ROOMS)
+				.bind("customers", CUSTOMERS)
+				.bind("employees", EMPLOYEES)
+				.bind("perRoom", (long) MESSAGES_PER_ROOM)
+				.bind("rooms", rooms)
+				.map(row -> row.get("id", Long.class))
+				.all()
+				.collectList()
+				.block();
+
+		for (int i = 0; i < roomIds.size(); i += ROOMS_PER_CHUNK) {
+			Long firstRoom = roomIds.get(i);
+			Long lastRoom = roomIds.get(Math.min(roomIds.size(), i + ROOMS_PER_CHUNK) - 1);
+			transactionalOperator.transactional(databaseClient.sql("SET LOCAL session_replication_role = replica")
+							.then()
+							.then(databaseClient.sql(SEED_MESSAGES)
+									.bind("words", WORDS)
+									.bind("perRoom", MESSAGES_PER_ROOM)
+									.bind("firstRoom", firstRoom)
+									.bind("lastRoom", lastRoom)
+									.then()))
+					.block();
+			System.out.printf("Seeded %d of %d rooms%n", Math.min(roomIds.size(), i + ROOMS_PER_CHUNK), roomIds.size());
+		}
+		databaseClient.sql("VACUUM ANALYZE chat_message").then().block();
+
+		System.out.printf("Seeded %d messages in %d s%n", (long) roomIds.size() * MESSAGES_PER_ROOM,
+				TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+		return roomIds;
+	}
+
+	private Measurement measure(List<Long> roomIds, boolean withSearches) {
+		Recorder writes = new Recorder(MAX_LATENCY_MICROS, 3);
+		Recorder searches = new Recorder(MAX_LATENCY_MICROS, 3);
+
+		Flux<Void> writeLoad = Flux.range(0, writers)
+				.flatMap(i -> Mono.defer(() -> timed(writes, write(roomIds))).repeat());
+		Flux<Void> searchLoad = withSearches
+				? Flux.range(0, searchers).flatMap(i -> Mono.defer(() -> timed(searches, search(roomIds))).repeat())
+				: Flux.empty();
+
+		Flux.merge(writeLoad, searchLoad)
+				.take(duration)
+				.blockLast();
+		return new Measurement(writes.getIntervalHistogram(), searches.getIntervalHistogram());
+	}
+
+	private Mono<Void> write(List<Long> roomIds) {
+		ChatMessage message = ChatMessage.builder()
+				.roomId(roomIds.get(ThreadLocalRandom.current().nextInt(roomIds.size())))
+				.senderType(SenderType.CUSTOMER)
+				.messageType(MessageType.TEXT)
+				.content(words(8))
+				.build();
+		return chatService.sendMessage(message, "search-writer").then();
+	}
+
+	/**
+	 * A one or two word query, alone or narrowed the way the dashboard does:
+	 * to a room, a customer, an employee or the last month. Every other
+	 * search also fetches its second page.
+	 */
+	private Mono<Void> search(List<Long> roomIds) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		MessageSearchRequest request = new MessageSearchRequest();
+		request.setQuery(words(1 + random.nextInt(2)));
+		switch (random.nextInt(5)) {
+			case 1 -> request.setRoomId(roomIds.get(random.nextInt(roomIds.size())));
+			case 2 -> request.setCustomerId("search-customer-" + random.nextInt(CUSTOMERS));
+			case 3 -> request.setEmployeeId("search-employee-" + random.nextInt(EMPLOYEES));
+			case 4 -> request.setFrom(Instant.now().minus(Duration.ofDays(30)));
+			default -> {
+			}
+		}
+		boolean nextPage = random.nextBoolean();
+
+		return chatService.searchMessages(request)
+				.collectList()
+				.flatMap(hits -> {
+					if (!nextPage || hits.isEmpty()) {
+						return Mono.empty();
+					}
+					MessageSearchHit last = hits.get(hits.size() - 1);
+					request.setAfterRank(last.getRank());
+					request.setAfterId(last.getId());
+					return chatService.searchMessages(request).then();
+				})
+				.then();
+	}
+
+	private Mono<Void> timed(Recorder recorder, Mono<Void> operation) {
+		long start = System.nanoTime();
+		return operation
+				.doOnSuccess(ignored -> {
+					long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+					recorder.recordValue(Math.min(Math.max(0, micros), MAX_LATENCY_MICROS));
+				})
+				.onErrorResume(e -> {
+					errors.incrementAndGet();
+					return Mono.empty();
+				});
+	}
+
+	private static String words(int count) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				text.append(' ');
+			}
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return text.toString();
+	}
+
+	private void print(String title, Histogram histogram) {
+		double seconds = duration.toMillis() / 1000.0;
+		System.out.printf("%s, %d operations (%.1f/s)%n", title, histogram.getTotalCount(),
+				histogram.getTotalCount() / seconds);
+		for (double percentile : new double[]{50.0, 90.0, 99.0, 99.9}) {
+			System.out.printf("  p%-7s %8.2f%n", percentile, histogram.getValueAtPercentile(percentile) / 1000.0);
+		}
+		System.out.printf("  max      %8.2f%n", histogram.getMaxValue() / 1000.0);
+	}
+
+	private record Measurement(Histogram writes, Histogram searches) {
+	}
+}
@@ -0,0 +1,29 @@
+package com.bookshop.chat_service.chat.domain;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Table("chat_file")
+public class ChatFile {
+    @Id
+    Long id;
+    Long roomId;
+    String uploadedBy;
+    String fileName;
+    String contentType;
+    Long size;
+    String sha256;
+
+    @CreatedDate
+    Instant createdDate;
+}
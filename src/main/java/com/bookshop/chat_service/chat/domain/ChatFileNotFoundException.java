@@ -0,0 +1,7 @@
+package com.bookshop.chat_service.chat.domain;
+
+public class ChatFileNotFoundException extends RuntimeException {
+    public ChatFileNotFoundException(Long fileId) {
+        super("Chat file not found with id: " + fileId);
+    }
+}
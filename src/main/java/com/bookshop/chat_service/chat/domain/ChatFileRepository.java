@@ -0,0 +1,8 @@
+package com.bookshop.chat_service.chat.domain;
+
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import reactor.core.publisher.Mono;
+
+public interface ChatFileRepository extends R2dbcRepository<ChatFile, Long> {
+    Mono<Boolean> existsBySha256(String sha256);
+}
@@ -0,0 +1,101 @@
+package com.bookshop.chat_service.chat.domain;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static com.bookshop.chat_service.chat.domain.RepositoryMetrics.Operation.*;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatFileService {
+
+    static final String DOWNLOAD_PATH = "/chats/files/";
+    static final int MAX_FILE_NAME_LENGTH = 255;
+
+    ChatService chatService;
+    ChatFileRepository fileRepository;
+    ChatFileStore fileStore;
+    RepositoryMetrics repositoryMetrics;
+
+    /**
+     * Streams the content into the file store and posts a FILE message whose
+     * content is the download path of the file. If the upload fails after
+     * the content was stored, its chat_file row is removed again. The stored
+     * file is left to {@link ChatFileSweeper}, since another upload of the
+     * same content may be about to refer to it.
+     */
+    public Mono<ChatMessage> upload(Long roomId, String senderId, SenderType senderType, String fileName,
+                                    MediaType contentType, Flux<DataBuffer> content) {
+        return chatService.getRoomSnapshot(roomId)
+                .filter(room -> !room.isClosed())
+                .switchIfEmpty(Mono.error(new InvalidChatOperationException("room " + roomId + " is closed")))
+                .then(fileStore.store(content))
+                .flatMap(stored -> post(roomId, senderId, senderType, fileName, contentType, stored));
+    }
+
+    private Mono<ChatMessage> post(Long roomId, String senderId, SenderType senderType, String fileName,
+                                   MediaType contentType, ChatFileStore.StoredFile stored) {
+        if (stored.size() == 0) {
+            return Mono.error(new InvalidChatOperationException("file is empty"));
+        }
+        ChatFile file = ChatFile.builder()
+                .roomId(roomId)
+                .uploadedBy(senderId)
+                .fileName(cleanFileName(fileName))
+                .contentType((contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM).toString())
+                .size(stored.size())
+                .sha256(stored.sha256())
+                .build();
+        return repositoryMetrics.timed(FILE_SAVE, fileRepository.save(file))
+                .flatMap(saved -> chatService.postMessage(ChatMessage.builder()
+                                .roomId(roomId)
+                                .senderType(senderType)
+                                .content(DOWNLOAD_PATH + saved.getId())
+                                .messageType(MessageType.FILE)
+                                .build(), senderId)
+                        .onErrorResume(e -> repositoryMetrics.timed(FILE_DELETE, fileRepository.delete(saved))
+                                .onErrorResume(deleteError -> {
+                                    log.warn("Could not remove file {} of a failed upload: {}",
+                                            saved.getId(), deleteError.getMessage());
+                                    return Mono.empty();
+                                })
+                                .then(Mono.error(e))));
+    }
+
+    public Mono<ChatFile> getFile(Long fileId) {
+        return repositoryMetrics.timed(FILE_FIND_BY_ID, fileRepository.findById(fileId))
+                .switchIfEmpty(Mono.error(new ChatFileNotFoundException(fileId)));
+    }
+
+    /**
+     * The stored content, as a file resource so that it can be sent with
+     * zero-copy transfer and served in ranges.
+     */
+    public Resource getContent(ChatFile file) {
+        Resource resource = new FileSystemResource(fileStore.path(file.getSha256()));
+        if (!resource.isReadable()) {
+            throw new ChatFileNotFoundException(file.getId());
+        }
+        return resource;
+    }
+
+    private static String cleanFileName(String fileName) {
+        String name = fileName != null ? StringUtils.getFilename(StringUtils.cleanPath(fileName)) : null;
+        if (name == null || name.isBlank()) {
+            return "file";
+        }
+        return name.length() > MAX_FILE_NAME_LENGTH ? name.substring(name.length() - MAX_FILE_NAME_LENGTH) : name;
+    }
+}
@@ -0,0 +1,174 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of uploaded files on the local file system. An
+ * upload is streamed buffer by buffer into a temporary file through an
+ * AsynchronousFileChannel while its SHA-256 is computed over the same
+ * buffers, so no file is ever held in memory whole. The finished file is
+ * moved to a path derived from its hash, which makes identical uploads share
+ * one stored file. Temporary files are removed however the upload ends.
+ * <p>
+ * Stored files are never deleted while an upload may still refer to them.
+ * Storing content that is already present refreshes the file's modification
+ * time, and {@link ChatFileSweeper} only removes files that no chat_file row
+ * refers to and that were not modified within a grace period.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatFileStore {
+
+    static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    Path root;
+    Path incoming;
+    long maxSize;
+
+    public ChatFileStore(ChatProperties properties) {
+        this.root = Path.of(properties.getFiles().getDirectory()).toAbsolutePath();
+        this.incoming = root.resolve("incoming");
+        this.maxSize = properties.getFiles().getMaxSize().toBytes();
+        try {
+            Files.createDirectories(incoming);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create file store in " + root, e);
+        }
+    }
+
+    /**
+     * Stores the content, failing with {@link ChatFileTooLargeException} as
+     * soon as it grows past the configured maximum size.
+     */
+    Mono<StoredFile> store(Flux<DataBuffer> content) {
+        return Mono.usingWhen(
+                Mono.fromCallable(() -> Files.createTempFile(incoming, "upload-", ".part"))
+                        .subscribeOn(Schedulers.boundedElastic()),
+                temp -> write(content, temp),
+                temp -> Mono.fromCallable(() -> Files.deleteIfExists(temp))
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    /**
+     * The hashes of stored files last modified before {@code cutoff}.
+     */
+    Flux<String> storedBefore(Instant cutoff) {
+        return Flux.using(() -> Files.walk(root, 3),
+                        paths -> Flux.fromStream(paths
+                                .filter(path -> SHA256_HEX.matcher(path.getFileName().toString()).matches())
+                                .filter(path -> path.equals(path(path.getFileName().toString())))
+                                .filter(path -> modifiedBefore(path, cutoff))
+                                .map(path -> path.getFileName().toString())),
+                        Stream::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Removes a stored file unless it was modified since {@code cutoff}.
+     * Callers make sure no chat_file row refers to it.
+     *
+     * @return whether the file was removed
+     */
+    Mono<Boolean> deleteIfModifiedBefore(String sha256, Instant cutoff) {
+        return Mono.fromCallable(() -> {
+                    Path path = path(sha256);
+                    return modifiedBefore(path, cutoff) && Files.deleteIfExists(path);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    Path path(String sha256) {
+        if (!SHA256_HEX.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("Not a SHA-256 hash: " + sha256);
+        }
+        return root.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private Mono<StoredFile> write(Flux<DataBuffer> content, Path temp) {
+        MessageDigest digest = sha256();
+        AtomicLong size = new AtomicLong();
+        Flux<DataBuffer> hashed = content.handle((buffer, sink) -> {
+            if (size.addAndGet(buffer.readableByteCount()) > maxSize) {
+                DataBufferUtils.release(buffer);
+                sink.error(new ChatFileTooLargeException(maxSize));
+                return;
+            }
+            try (DataBuffer.ByteBufferIterator buffers = buffer.readableByteBuffers()) {
+                buffers.forEachRemaining(digest::update);
+            }
+            sink.next(buffer);
+        });
+
+        return DataBufferUtils.write(hashed, temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                .then(Mono.fromCallable(() -> moveToStore(temp, HexFormat.of().formatHex(digest.digest()), size.get()))
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private StoredFile moveToStore(Path temp, String sha256, long size) throws IOException {
+        Path target = path(sha256);
+        if (touch(target)) {
+            return new StoredFile(sha256, size);
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Stored meanwhile by a concurrent upload of the same content
+        }
+        return new StoredFile(sha256, size);
+    }
+
+    // Restarts the grace period of a file this upload is about to refer to
+    private static boolean touch(Path path) throws IOException {
+        try {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static boolean modifiedBefore(Path path, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    record StoredFile(String sha256, long size) {
+    }
+}
@@ -0,0 +1,102 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+
+import static com.bookshop.chat_service.chat.domain.RepositoryMetrics.Operation.FILE_REFERENCED;
+
+/**
+ * Removes stored files that no chat_file row refers to, left behind by
+ * uploads that failed after storing their content. Failed uploads never
+ * delete content themselves, because another upload of the same content may
+ * be about to save a row for it. A file is only removed once it has not been
+ * modified for the orphan grace period, which storing the same content again
+ * restarts, and its modification time is checked once more right before it
+ * is deleted.
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatFileSweeper implements SmartLifecycle {
+
+    ChatProperties.Files properties;
+    ChatFileStore fileStore;
+    ChatFileRepository fileRepository;
+    RepositoryMetrics repositoryMetrics;
+    Counter deletedFiles;
+
+    @NonFinal
+    volatile Disposable schedule;
+
+    public ChatFileSweeper(ChatProperties properties, ChatFileStore fileStore, ChatFileRepository fileRepository,
+                           RepositoryMetrics repositoryMetrics, MeterRegistry meterRegistry) {
+        this.properties = properties.getFiles();
+        this.fileStore = fileStore;
+        this.fileRepository = fileRepository;
+        this.repositoryMetrics = repositoryMetrics;
+        this.deletedFiles = Counter.builder("chat.file.orphans.deleted")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the number of files removed
+     */
+    Mono<Long> sweep() {
+        Instant cutoff = Instant.now().minus(properties.getOrphanGrace());
+        return fileStore.storedBefore(cutoff)
+                .concatMap(sha256 -> repositoryMetrics.timed(FILE_REFERENCED, fileRepository.existsBySha256(sha256))
+                        .filter(referenced -> !referenced)
+                        .flatMap(orphan -> fileStore.deleteIfModifiedBefore(sha256, cutoff)))
+                .filter(Boolean::booleanValue)
+                .count()
+                .doOnNext(deleted -> {
+                    if (deleted > 0) {
+                        deletedFiles.increment(deleted);
+                        log.info("Removed {} stored files that no chat_file row refers to", deleted);
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("Stored file sweep failed: {}", e.getMessage());
+                    return Mono.just(0L);
+                });
+    }
+
+    @Override
+    public void start() {
+        schedule = Flux.interval(properties.getSweepInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> sweep(), 0)
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = schedule;
+        if (current != null) {
+            current.dispose();
+            schedule = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return schedule != null;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
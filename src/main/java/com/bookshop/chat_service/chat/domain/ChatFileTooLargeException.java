@@ -0,0 +1,7 @@
+package com.bookshop.chat_service.chat.domain;
+
+public class ChatFileTooLargeException extends RuntimeException {
+    public ChatFileTooLargeException(long maxSize) {
+        super("File exceeds the maximum size of " + maxSize + " bytes");
+    }
+}
@@ -23,4 +23,5 @@ public class ChatMessage {
     MessageType messageType;
     Instant timestamp;
     Boolean read;
+    Long seq;
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Maintains the partitioned message table. At startup and every interval
+ * after it creates the monthly partitions for the coming months, whether or
+ * not archiving is enabled, since inserts fail once they run past the last
+ * partition. With archiving enabled it also moves the messages of rooms
+ * closed for longer than the configured age into the archive, where each room
+ * becomes a single compressed row. One replica archives at a time, guarded by
+ * a transaction-scoped advisory lock.
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatMessageArchiver implements SmartLifecycle {
+
+    static final String ARCHIVE_LOCK = "chat_message_archive";
+
+    static final String FIND_CLOSED_ROOMS = """
+            SELECT r.id FROM chat_room r
+            WHERE r.status = 'CLOSED' AND r.last_modified_date < :closedBefore
+              AND EXISTS (SELECT 1 FROM chat_message m WHERE m.room_id = r.id)
+            ORDER BY r.last_modified_date
+            LIMIT :limit
+            """;
+
+    // Deleting and archiving in one statement means a message is never in both places or in neither
+    static final String ARCHIVE_ROOM = """
+            WITH moved AS (
+                DELETE FROM chat_message WHERE room_id = :roomId
+                RETURNING id, seq, sender_id, sender_type, content, message_type, timestamp, read
+            ), archived AS (
+                INSERT INTO chat_message_archive AS a
+                    (room_id, message_count, first_timestamp, last_timestamp, archived_date, messages)
+                SELECT :roomId, COUNT(*), MIN(timestamp), MAX(timestamp), LOCALTIMESTAMP,
+                       jsonb_agg(jsonb_build_object(
+                               'id', id, 'seq', seq, 'senderId', sender_id, 'senderType', sender_type,
+                               'content', content, 'messageType', message_type,
+                               'timestamp', timestamp, 'read', read) ORDER BY seq)
+                FROM moved
+                HAVING COUNT(*) > 0
+                ON CONFLICT (room_id) DO UPDATE
+                SET message_count = a.message_count + EXCLUDED.message_count,
+                    first_timestamp = LEAST(a.first_timestamp, EXCLUDED.first_timestamp),
+                    last_timestamp = GREATEST(a.last_timestamp, EXCLUDED.last_timestamp),
+                    archived_date = EXCLUDED.archived_date,
+                    messages = a.messages || EXCLUDED.messages
+            )
+            SELECT COUNT(*) AS moved FROM moved
+            """;
+
+    ChatProperties.Archive properties;
+    DatabaseClient databaseClient;
+    TransactionalOperator transactionalOperator;
+    RecentMessageCache recentMessages;
+    Counter archivedRooms;
+    Counter archivedMessages;
+
+    @NonFinal
+    volatile Disposable schedule;
+
+    public ChatMessageArchiver(ChatProperties properties, DatabaseClient databaseClient,
+                               TransactionalOperator transactionalOperator,
+                               RecentMessageCache recentMessages, MeterRegistry meterRegistry) {
+        this.properties = properties.getArchive();
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = transactionalOperator;
+        this.recentMessages = recentMessages;
+        this.archivedRooms = Counter.builder("chat.message.archive.rooms")
+                .register(meterRegistry);
+        this.archivedMessages = Counter.builder("chat.message.archive.messages")
+                .register(meterRegistry);
+    }
+
+    Mono<Void> runMaintenance() {
+        return createPartitions()
+                .then(Mono.defer(() -> properties.isEnabled() ? archiveClosedRooms() : Mono.empty()))
+                .onErrorResume(e -> {
+                    log.warn("Message table maintenance failed: {}", e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    Mono<Void> createPartitions() {
+        return databaseClient.sql("SELECT create_chat_message_partitions(:monthsAhead) AS created")
+                .bind("monthsAhead", properties.getPartitionsAhead())
+                .map(row -> row.get("created", Integer.class))
+                .one()
+                .doOnNext(created -> {
+                    if (created > 0) {
+                        log.info("Created {} chat_message partitions", created);
+                    }
+                })
+                .then();
+    }
+
+    Mono<Void> archiveClosedRooms() {
+        Instant closedBefore = Instant.now().minus(properties.getClosedFor());
+        Flux<Void> archiving = databaseClient.sql("SELECT pg_try_advisory_xact_lock(hashtext(:lock)) AS locked")
+                .bind("lock", ARCHIVE_LOCK)
+                .map(row -> row.get("locked", Boolean.class))
+                .one()
+                .filter(Boolean::booleanValue)
+                .flatMapMany(locked -> databaseClient.sql(FIND_CLOSED_ROOMS)
+                        .bind("closedBefore", closedBefore)
+                        .bind("limit", properties.getBatchSize())
+                        .map(row -> row.get("id", Long.class))
+                        .all()
+                        .collectList())
+                .flatMapIterable(roomIds -> roomIds)
+                .concatMap(this::archiveRoom);
+        return transactionalOperator.transactional(archiving).then();
+    }
+
+    private Mono<Void> archiveRoom(Long roomId) {
+        return databaseClient.sql(ARCHIVE_ROOM)
+                .bind("roomId", roomId)
+                .map(row -> row.get("moved", Long.class))
+                .one()
+                .doOnNext(moved -> {
+                    recentMessages.invalidate(roomId);
+                    archivedRooms.increment();
+                    archivedMessages.increment(moved);
+                    log.debug("Archived {} messages of room {}", moved, roomId);
+                })
+                .then();
+    }
+
+    @Override
+    public void start() {
+        schedule = Flux.interval(Duration.ZERO, properties.getInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> runMaintenance(), 0)
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = schedule;
+        if (current != null) {
+            current.dispose();
+            schedule = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return schedule != null;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
@@ -0,0 +1,249 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind path for chat messages. Inserts arriving within
+ * {@code max-delay} of each other, or up to {@code max-batch-size}, are
+ * written with a single multi-row INSERT ... RETURNING. Rooms are pinned to
+ * a lane and every lane flushes serially, so messages of one room are
+ * inserted, and therefore numbered, in the order they were sent.
+ * <p>
+ * Inserts are only accepted while the lanes run. Before start and after
+ * stop they fail right away instead of waiting on a lane that never flushes.
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatMessageBatchWriter implements SmartLifecycle {
+
+    static final String INSERT_PREFIX = "INSERT INTO chat_message "
+            + "(room_id, sender_id, sender_type, content, message_type, timestamp, read) VALUES ";
+    static final int COLUMNS = 7;
+    static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+    static final long STOP_TIMEOUT_SECONDS = 10;
+
+    ChatProperties.WriteBehind properties;
+    DatabaseClient databaseClient;
+    DistributionSummary batchSize;
+    Timer flushLatency;
+    Timer insertLatency;
+
+    @NonFinal
+    volatile List<Sinks.Many<PendingInsert>> lanes = List.of();
+    @NonFinal
+    volatile CompletableFuture<Void> completion;
+
+    public ChatMessageBatchWriter(ChatProperties properties, DatabaseClient databaseClient,
+                                  MeterRegistry meterRegistry) {
+        this.properties = properties.getWriteBehind();
+        this.databaseClient = databaseClient;
+        this.batchSize = DistributionSummary.builder("chat.message.write_behind.batch.size")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.flushLatency = Timer.builder("chat.message.write_behind.flush")
+                .description("Time spent executing one batched INSERT")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.insertLatency = Timer.builder("chat.message.write_behind.latency")
+                .description("Time from enqueueing a message until its id is known")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public Mono<ChatMessage> insert(ChatMessage message) {
+        return Mono.create(sink -> {
+            List<Sinks.Many<PendingInsert>> running = lanes;
+            if (running.isEmpty()) {
+                sink.error(new IllegalStateException("Write-behind is not running"));
+                return;
+            }
+            Sinks.Many<PendingInsert> lane = running.get(Math.floorMod(Long.hashCode(message.getRoomId()), running.size()));
+            if (!offer(lane, new PendingInsert(message, sink, System.nanoTime()))) {
+                sink.error(new IllegalStateException("Write-behind lane is closed"));
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        List<Sinks.Many<PendingInsert>> started = new ArrayList<>();
+        List<Mono<Void>> flushes = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, properties.getLanes()); i++) {
+            Sinks.Many<PendingInsert> lane = Sinks.many().unicast().onBackpressureBuffer();
+            started.add(lane);
+            flushes.add(lane.asFlux()
+                    .bufferTimeout(properties.getMaxBatchSize(), properties.getMaxDelay())
+                    .concatMap(this::flush)
+                    .then());
+        }
+        completion = Mono.when(flushes).toFuture();
+        lanes = List.copyOf(started);
+    }
+
+    @Override
+    public void stop() {
+        CompletableFuture<Void> current = completion;
+        if (current == null) {
+            return;
+        }
+
+        List<Sinks.Many<PendingInsert>> stopping = lanes;
+        lanes = List.of();
+        stopping.forEach(lane -> lane.emitComplete(Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT)));
+        try {
+            current.get(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("Write-behind queue did not drain within {}s: {}", STOP_TIMEOUT_SECONDS, e.getMessage());
+        }
+        completion = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return completion != null;
+    }
+
+    // Start before and stop after the web server, so in-flight messages still get written
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    // Concurrent producers retry briefly, a completed lane fails the offer
+    private static boolean offer(Sinks.Many<PendingInsert> lane, PendingInsert pending) {
+        long deadline = System.nanoTime() + EMIT_TIMEOUT.toNanos();
+        while (true) {
+            Sinks.EmitResult result = lane.tryEmitNext(pending);
+            if (result.isSuccess()) {
+                return true;
+            }
+            if (result != Sinks.EmitResult.FAIL_NON_SERIALIZED || System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private Mono<Void> flush(List<PendingInsert> buffered) {
+        long start = System.nanoTime();
+        batchSize.record(buffered.size());
+
+        // The seq trigger locks each room's row; taking those locks in room order
+        // keeps two lanes' batches from deadlocking. The sort is stable, so each
+        // room keeps its send order.
+        List<PendingInsert> batch = new ArrayList<>(buffered);
+        batch.sort(Comparator.comparing(pending -> pending.message().getRoomId()));
+
+        return bindBatch(batch)
+                .map(row -> new InsertedRow(row.get("room_id", Long.class), row.get("id", Long.class),
+                        row.get("seq", Long.class)))
+                .all()
+                .sort(Comparator.comparing(InsertedRow::roomId).thenComparing(InsertedRow::seq))
+                .collectList()
+                .doOnNext(rows -> {
+                    flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    completeBatch(batch, rows);
+                })
+                .onErrorResume(e -> {
+                    log.error("Batched insert of {} messages failed: {}", batch.size(), e.getMessage());
+                    batch.forEach(pending -> pending.sink().error(e));
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private DatabaseClient.GenericExecuteSpec bindBatch(List<PendingInsert> batch) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * 40).append(INSERT_PREFIX);
+        for (int i = 0; i < batch.size(); i++) {
+            int base = i * COLUMNS;
+            sql.append(i == 0 ? "(" : ", (");
+            for (int column = 1; column <= COLUMNS; column++) {
+                sql.append('$').append(base + column).append(column < COLUMNS ? ", " : ")");
+            }
+        }
+        sql.append(" RETURNING room_id, id, seq");
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < batch.size(); i++) {
+            ChatMessage message = batch.get(i).message();
+            int base = i * COLUMNS;
+            spec = spec.bind(base, message.getRoomId())
+                    .bind(base + 1, message.getSenderId());
+            spec = bindNullable(spec, base + 2, enumName(message.getSenderType()), String.class);
+            spec = spec.bind(base + 3, message.getContent());
+            spec = bindNullable(spec, base + 4, enumName(message.getMessageType()), String.class);
+            spec = spec.bind(base + 5, message.getTimestamp())
+                    .bind(base + 6, message.getRead());
+        }
+        return spec;
+    }
+
+    private static <T> DatabaseClient.GenericExecuteSpec bindNullable(
+            DatabaseClient.GenericExecuteSpec spec, int index, T value, Class<T> type) {
+        return value == null ? spec.bindNull(index, type) : spec.bind(index, value);
+    }
+
+    private static String enumName(Enum<?> value) {
+        return value == null ? null : value.name();
+    }
+
+    // Neither RETURNING order nor id order is guaranteed to follow VALUES order, but per-room seq is:
+    // the trigger numbers a room's rows one at a time under its row lock. Rows sorted by (room, seq)
+    // therefore line up with the batch, which is sorted by room and keeps send order within a room
+    private void completeBatch(List<PendingInsert> batch, List<InsertedRow> rows) {
+        if (rows.size() != batch.size()) {
+            throw new IllegalStateException("Batched insert returned " + rows.size() + " rows for "
+                    + batch.size() + " messages");
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (!rows.get(i).roomId().equals(batch.get(i).message().getRoomId())) {
+                throw new IllegalStateException("Batched insert returned rows that do not match its rooms");
+            }
+        }
+
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingInsert pending = batch.get(i);
+            pending.message().setId(rows.get(i).id());
+            pending.message().setSeq(rows.get(i).seq());
+            insertLatency.record(now - pending.enqueuedAt(), TimeUnit.NANOSECONDS);
+            pending.sink().success(pending.message());
+        }
+    }
+
+    private record InsertedRow(Long roomId, Long id, Long seq) {
+    }
+
+    private record PendingInsert(ChatMessage message, MonoSink<ChatMessage> sink, long enqueuedAt) {
+    }
+}
@@ -0,0 +1,50 @@
+package com.bookshop.chat_service.chat.domain;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process feed of newly stored messages, per room. A room only has a
+ * channel while somebody is subscribed to it, so publishing to rooms nobody
+ * follows costs a single map lookup.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatMessageFeed {
+
+    static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+
+    Map<Long, RoomChannel> channels = new ConcurrentHashMap<>();
+
+    public void publish(ChatMessage message) {
+        RoomChannel channel = channels.get(message.getRoomId());
+        if (channel != null) {
+            channel.sink.emitNext(message, Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+        }
+    }
+
+    public Flux<ChatMessage> room(Long roomId) {
+        return Flux.defer(() -> {
+            RoomChannel channel = channels.compute(roomId, (id, current) -> {
+                RoomChannel result = current != null ? current : new RoomChannel();
+                result.subscribers++;
+                return result;
+            });
+            return channel.sink.asFlux()
+                    .doFinally(signal -> channels.computeIfPresent(roomId,
+                            (id, current) -> --current.subscribers == 0 ? null : current));
+        });
+    }
+
+    private static final class RoomChannel {
+        final Sinks.Many<ChatMessage> sink = Sinks.many().multicast().directBestEffort();
+        int subscribers;
+    }
+}
@@ -1,5 +1,7 @@
 package com.bookshop.chat_service.chat.domain;
 
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -7,7 +9,123 @@ import reactor.core.publisher.Mono;
 import java.time.Instant;
 
 public interface ChatMessageRepository extends R2dbcRepository<ChatMessage, Long> {
+    // Listed explicitly so queries do not ship the search vector back
+    String COLUMNS = "id, room_id, sender_id, sender_type, content, message_type, timestamp, read, seq";
+
     Flux<ChatMessage> findByRoomIdOrderByTimestamp(Long roomId);
     Flux<ChatMessage> findByRoomIdAndTimestampAfter(Long roomId, Instant since);
-    Flux<ChatMessage> findByRoomIdAndReadFalseAndSenderIdNot(Long roomId, String senderId);
+    Flux<ChatMessage> findByRoomIdAndSeqGreaterThanOrderBySeq(Long roomId, Long seq);
+
+    // seq is assigned by a trigger, so the stored row is read back rather than relying on generated keys
+    @Query("""
+            INSERT INTO chat_message (room_id, sender_id, sender_type, content, message_type, timestamp, read)
+            VALUES (:roomId, :senderId, :senderType, :content, :messageType, :timestamp, :read)
+            RETURNING\s""" + COLUMNS)
+    Mono<ChatMessage> insert(Long roomId, String senderId, String senderType, String content,
+                             String messageType, Instant timestamp, Boolean read);
+
+    // seq is not the partition key, so this probes the (room_id, seq) index of every partition. That is
+    // one index descent per partition, and archiving keeps the number of partitions with rows small
+    @Query("SELECT " + COLUMNS + " FROM chat_message WHERE room_id = :roomId AND seq > :seq ORDER BY seq LIMIT :limit")
+    Flux<ChatMessage> findBySeqAfter(Long roomId, long seq, int limit);
+
+    // Ordered by the partition key, so partitions are read newest first and the scan stops at :limit
+    @Query("SELECT " + COLUMNS + " FROM chat_message WHERE room_id = :roomId ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    Flux<ChatMessage> findLatestPage(Long roomId, int limit);
+
+    // The plain timestamp bound lets the executor prune partitions older or newer than the cursor
+    @Query("SELECT " + COLUMNS + """
+             FROM chat_message
+            WHERE room_id = :roomId
+              AND timestamp <= (SELECT timestamp FROM chat_message WHERE id = :before AND room_id = :roomId)
+              AND (timestamp, id) < (SELECT timestamp, id FROM chat_message WHERE id = :before AND room_id = :roomId)
+            ORDER BY timestamp DESC, id DESC
+            LIMIT :limit
+            """)
+    Flux<ChatMessage> findPageBefore(Long roomId, Long before, int limit);
+
+    @Query("SELECT " + COLUMNS + """
+             FROM chat_message
+            WHERE room_id = :roomId
+              AND timestamp >= (SELECT timestamp FROM chat_message WHERE id = :after AND room_id = :roomId)
+              AND (timestamp, id) > (SELECT timestamp, id FROM chat_message WHERE id = :after AND room_id = :roomId)
+            ORDER BY timestamp, id
+            LIMIT :limit
+            """)
+    Flux<ChatMessage> findPageAfter(Long roomId, Long after, int limit);
+
+    @Query("""
+            SELECT (m->>'id')::BIGINT AS id, a.room_id,
+                   m->>'senderId' AS sender_id, m->>'senderType' AS sender_type,
+                   m->>'content' AS content, m->>'messageType' AS message_type,
+                   (m->>'timestamp')::TIMESTAMP AS timestamp, (m->>'read')::BOOLEAN AS read,
+                   (m->>'seq')::BIGINT AS seq
+            FROM chat_message_archive a CROSS JOIN LATERAL jsonb_array_elements(a.messages) m
+            WHERE a.room_id = :roomId
+            ORDER BY (m->>'seq')::BIGINT
+            """)
+    Flux<ChatMessage> findArchived(Long roomId);
+
+    // Ranks only the newest :maxCandidates matches inside the filters, so a common word costs a bounded
+    // number of ts_rank calls, then highlights only the page that is returned
+    @Query("""
+            SELECT h.id, h.room_id, h.sender_id, h.sender_type, h.message_type, h.timestamp, h.seq, h.rank,
+                   ts_headline('simple', h.content, h.query, 'MaxFragments=2, MaxWords=20, MinWords=5') AS snippet
+            FROM (
+                SELECT c.id, c.room_id, c.sender_id, c.sender_type, c.content, c.message_type, c.timestamp, c.seq,
+                       c.query, ts_rank(c.content_tsv, c.query) AS rank
+                FROM (
+                    SELECT m.id, m.room_id, m.sender_id, m.sender_type, m.content, m.content_tsv, m.message_type,
+                           m.timestamp, m.seq, q.query
+                    FROM chat_message m
+                    JOIN chat_room r ON r.id = m.room_id
+                    CROSS JOIN websearch_to_tsquery('simple', :query) AS q(query)
+                    WHERE m.content_tsv @@ q.query
+                      AND m.timestamp >= :from AND m.timestamp < :to
+                      AND (CAST(:roomId AS BIGINT) IS NULL OR m.room_id = :roomId)
+                      AND (CAST(:customerId AS VARCHAR) IS NULL OR r.customer_id = :customerId)
+                      AND (CAST(:employeeId AS VARCHAR) IS NULL OR r.employee_id = :employeeId)
+                    ORDER BY m.timestamp DESC, m.id DESC
+                    LIMIT :maxCandidates
+                ) c
+            ) h
+            WHERE CAST(:afterRank AS REAL) IS NULL OR (h.rank, h.id) < (:afterRank, :afterId)
+            ORDER BY h.rank DESC, h.id DESC
+            LIMIT :limit
+            """)
+    Flux<MessageSearchHit> search(String query, Long roomId, String customerId, String employeeId,
+                                  Instant from, Instant to, Float afterRank, Long afterId,
+                                  int maxCandidates, int limit);
+
+    @Modifying
+    @Query("""
+            INSERT INTO chat_read_watermark (room_id, reader_id, last_read_message_id, last_modified_date)
+            SELECT :roomId, :readerId, COALESCE(MAX(id), 0), NOW() FROM chat_message WHERE room_id = :roomId
+            ON CONFLICT (room_id, reader_id) DO UPDATE
+            SET last_read_message_id = GREATEST(chat_read_watermark.last_read_message_id,
+                                                EXCLUDED.last_read_message_id),
+                last_modified_date = EXCLUDED.last_modified_date
+            """)
+    Mono<Integer> upsertReadWatermark(Long roomId, String readerId);
+
+    // Replying counts as reading, so counting starts after the reader's own newest message, found with one
+    // index probe. Every message scanned after it is someone else's, and counting stops at :cap, so each
+    // room costs at most :cap index entries however long its history is
+    @Query("""
+            SELECT r.id AS room_id,
+                   COALESCE(w.last_read_message_id, 0) AS last_read_message_id,
+                   (SELECT COUNT(*) FROM (
+                        SELECT 1 FROM chat_message m
+                        WHERE m.room_id = r.id
+                          AND m.id > GREATEST(COALESCE(w.last_read_message_id, 0), COALESCE(own.id, 0))
+                          AND m.sender_id <> :userId
+                        LIMIT :cap) unread) AS unread_count
+            FROM chat_room r
+            LEFT JOIN chat_read_watermark w ON w.room_id = r.id AND w.reader_id = :userId
+            LEFT JOIN LATERAL (
+                SELECT MAX(id) AS id FROM chat_message
+                WHERE room_id = r.id AND sender_id = :userId) own ON TRUE
+            WHERE r.customer_id = :userId OR r.employee_id = :userId
+            """)
+    Flux<RoomUnreadCount> countUnreadByParticipant(String userId, int cap);
 }
\ No newline at end of file
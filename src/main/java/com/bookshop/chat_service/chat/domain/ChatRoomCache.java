@@ -0,0 +1,153 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.Value;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.PackagePrivate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of room metadata used by the WebSocket hot path.
+ * Entries are split over independently locked segments so lookups from
+ * different rooms rarely contend.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatRoomCache {
+
+    @PackagePrivate
+    static final int SEGMENTS = 16;
+    static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+
+    Segment[] segments = new Segment[SEGMENTS];
+    LongAdder hits = new LongAdder();
+    LongAdder misses = new LongAdder();
+    LongAdder evictions = new LongAdder();
+    Sinks.Many<Long> changes = Sinks.many().multicast().directBestEffort();
+
+    public ChatRoomCache(ChatProperties properties, MeterRegistry meterRegistry) {
+        int segmentSize = Math.max(1, properties.getRoomCache().getMaxSize() / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize, evictions);
+        }
+
+        FunctionCounter.builder("chat.room.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.room.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.room.cache.evictions", evictions, LongAdder::sum)
+                .register(meterRegistry);
+        Gauge.builder("chat.room.cache.size", this, ChatRoomCache::size)
+                .register(meterRegistry);
+    }
+
+    public ChatRoomSnapshot get(Long roomId) {
+        ChatRoomSnapshot snapshot = segmentFor(roomId).get(roomId);
+        if (snapshot == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return snapshot;
+    }
+
+    public ChatRoomSnapshot put(ChatRoom room) {
+        ChatRoomSnapshot snapshot = ChatRoomSnapshot.from(room);
+        return segmentFor(room.getId()).merge(room.getId(), snapshot);
+    }
+
+    /**
+     * Caches a room that was just written by this node and announces the
+     * change, so that other nodes can drop their copy.
+     */
+    public ChatRoomSnapshot update(ChatRoom room) {
+        ChatRoomSnapshot snapshot = put(room);
+        changes.emitNext(room.getId(), Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+        return snapshot;
+    }
+
+    public void invalidate(Long roomId) {
+        segmentFor(roomId).remove(roomId);
+    }
+
+    public Flux<Long> changes() {
+        return changes.asFlux();
+    }
+
+    public Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+
+    private int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(Long roomId) {
+        return segments[Long.hashCode(roomId) & (SEGMENTS - 1)];
+    }
+
+    @Value
+    public static class Stats {
+        long hits;
+        long misses;
+        long evictions;
+        int size;
+    }
+
+    private static final class Segment extends LinkedHashMap<Long, ChatRoomSnapshot> {
+
+        private final int maxSize;
+        private final LongAdder evictions;
+
+        Segment(int maxSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        synchronized ChatRoomSnapshot get(Long roomId) {
+            return super.get(roomId);
+        }
+
+        // A concurrent reload must never overwrite a newer version of the same room
+        synchronized ChatRoomSnapshot merge(Long roomId, ChatRoomSnapshot snapshot) {
+            return super.merge(roomId, snapshot,
+                    (current, candidate) -> candidate.getVersion() >= current.getVersion() ? candidate : current);
+        }
+
+        synchronized ChatRoomSnapshot remove(Long roomId) {
+            return super.remove(roomId);
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ChatRoomSnapshot> eldest) {
+            if (super.size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -1,11 +1,59 @@
 package com.bookshop.chat_service.chat.domain;
 
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+
 public interface ChatRoomRepository extends R2dbcRepository<ChatRoom, Long> {
+    // One row per room: the newest message via a lateral index probe, and unread messages counted up to :cap.
+    // Replying counts as reading, so counting starts after the reader's own newest message and never
+    // walks over the reader's messages
+    String INBOX_SELECT = """
+            SELECT r.id AS room_id, r.customer_id, r.employee_id, r.status, r.last_modified_date AS last_activity,
+                   m.id AS last_message_id, m.sender_id AS last_message_sender_id,
+                   LEFT(m.content, :snippetLength) AS last_message_snippet, m.timestamp AS last_message_timestamp,
+                   (SELECT COUNT(*) FROM (
+                        SELECT 1 FROM chat_message u
+                        WHERE u.room_id = r.id
+                          AND u.id > GREATEST(COALESCE(w.last_read_message_id, 0), COALESCE(own.id, 0))
+                          AND u.sender_id <> :userId
+                        LIMIT :cap) unread) AS unread_count
+            FROM chat_room r
+            LEFT JOIN chat_read_watermark w ON w.room_id = r.id AND w.reader_id = :userId
+            LEFT JOIN LATERAL (
+                SELECT MAX(id) AS id FROM chat_message
+                WHERE room_id = r.id AND sender_id = :userId) own ON TRUE
+            LEFT JOIN LATERAL (
+                SELECT id, sender_id, content, timestamp FROM chat_message
+                WHERE room_id = r.id
+                ORDER BY timestamp DESC, id DESC
+                LIMIT 1) m ON TRUE
+            """;
+    String INBOX_PAGE = """
+              AND (CAST(:beforeActivity AS TIMESTAMP) IS NULL
+                   OR (r.last_modified_date, r.id) < (:beforeActivity, :beforeId))
+            ORDER BY r.last_modified_date DESC, r.id DESC
+            LIMIT :limit
+            """;
+
     Flux<ChatRoom> findByCustomerId(String customerId);
     Flux<ChatRoom> findByEmployeeId(String employeeId);
     Mono<ChatRoom> findByCustomerIdAndStatus(String customerId, ChatRoomStatus status);
+    Flux<ChatRoom> findByStatus(ChatRoomStatus status);
+
+    @Query(INBOX_SELECT + "WHERE r.customer_id = :userId\n" + INBOX_PAGE)
+    Flux<RoomInboxEntry> findCustomerInbox(String userId, Instant beforeActivity, Long beforeId,
+                                           int limit, int snippetLength, int cap);
+
+    @Query(INBOX_SELECT + "WHERE r.employee_id = :userId\n" + INBOX_PAGE)
+    Flux<RoomInboxEntry> findEmployeeInbox(String userId, Instant beforeActivity, Long beforeId,
+                                           int limit, int snippetLength, int cap);
+
+    @Modifying
+    @Query("UPDATE chat_room SET last_modified_date = GREATEST(last_modified_date, :lastModifiedDate) WHERE id = :roomId")
+    Mono<Integer> touchLastModifiedDate(Long roomId, Instant lastModifiedDate);
 }
\ No newline at end of file
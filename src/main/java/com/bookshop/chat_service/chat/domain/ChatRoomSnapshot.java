@@ -0,0 +1,28 @@
+package com.bookshop.chat_service.chat.domain;
+
+import lombok.Builder;
+import lombok.Value;
+
+@Value
+@Builder
+public class ChatRoomSnapshot {
+    Long id;
+    ChatRoomStatus status;
+    String customerId;
+    String employeeId;
+    int version;
+
+    public static ChatRoomSnapshot from(ChatRoom room) {
+        return ChatRoomSnapshot.builder()
+                .id(room.getId())
+                .status(room.getStatus())
+                .customerId(room.getCustomerId())
+                .employeeId(room.getEmployeeId())
+                .version(room.getVersion())
+                .build();
+    }
+
+    public boolean isClosed() {
+        return ChatRoomStatus.CLOSED.equals(status);
+    }
+}
@@ -1,15 +1,28 @@
 package com.bookshop.chat_service.chat.domain;
 
 import com.bookshop.chat_service.chat.web.ChatRoomUpdateRequest;
+import com.bookshop.chat_service.chat.web.MessageSearchRequest;
+import com.bookshop.chat_service.config.ChatProperties;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import static com.bookshop.chat_service.chat.domain.RepositoryMetrics.Operation.*;
 
 @Slf4j
 @Service
@@ -17,24 +30,67 @@ import java.time.Instant;
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class ChatService {
 
+    static final int UNREAD_COUNT_CAP = 100;
+    static final int LIVE_TAIL_BUFFER = 1024;
+    static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+
     ChatRoomRepository roomRepository;
     ChatMessageRepository messageRepository;
+    ChatRoomCache roomCache;
+    ChatMessageBatchWriter batchWriter;
+    RoomActivityTracker activityTracker;
+    ChatProperties properties;
+    ChatMessageFeed messageFeed;
+    RepositoryMetrics repositoryMetrics;
+    RecentMessageCache recentMessages;
+    Sinks.Many<ChatRoom> roomUpdates = Sinks.many().multicast().directBestEffort();
+    Sinks.Many<ChatMessage> postedMessages = Sinks.many().multicast().directBestEffort();
 
     public Flux<ChatRoom> getChatRooms() {
-        return roomRepository.findAll();
+        return repositoryMetrics.timed(ROOM_FIND_ALL, roomRepository.findAll());
     }
 
     public Mono<ChatRoom> getChatRoom(Long id) {
-        return roomRepository.findById(id)
-                .switchIfEmpty(Mono.error(new ChatRoomNotFoundException(id)));
+        return repositoryMetrics.timed(ROOM_FIND_BY_ID, roomRepository.findById(id))
+                .switchIfEmpty(Mono.error(new ChatRoomNotFoundException(id)))
+                .doOnNext(roomCache::put);
+    }
+
+    public Mono<ChatRoomSnapshot> getRoomSnapshot(Long id) {
+        return Mono.defer(() -> {
+            ChatRoomSnapshot cached = roomCache.get(id);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return repositoryMetrics.timed(ROOM_FIND_BY_ID, roomRepository.findById(id))
+                    .switchIfEmpty(Mono.error(new ChatRoomNotFoundException(id)))
+                    .map(roomCache::put);
+        });
     }
 
     public Flux<ChatRoom> getCustomerRooms(String customerId) {
-        return roomRepository.findByCustomerId(customerId);
+        return repositoryMetrics.timed(ROOM_FIND_BY_PARTICIPANT, roomRepository.findByCustomerId(customerId));
     }
 
     public Flux<ChatRoom> getEmployeeRooms(String employeeId) {
-        return roomRepository.findByEmployeeId(employeeId);
+        return repositoryMetrics.timed(ROOM_FIND_BY_PARTICIPANT, roomRepository.findByEmployeeId(employeeId));
+    }
+
+    /**
+     * The customer's rooms, most recently active first, each with its last
+     * message and unread count. Pass the {@code lastActivity} and
+     * {@code roomId} of the last entry to get the next page.
+     */
+    public Flux<RoomInboxEntry> getCustomerInbox(String customerId, Instant beforeActivity, Long beforeId,
+                                                 Integer limit) {
+        return inbox(beforeActivity, beforeId, limit, (pageSize, snippetLength) -> roomRepository
+                .findCustomerInbox(customerId, beforeActivity, beforeId, pageSize, snippetLength, UNREAD_COUNT_CAP));
+    }
+
+    public Flux<RoomInboxEntry> getEmployeeInbox(String employeeId, Instant beforeActivity, Long beforeId,
+                                                 Integer limit) {
+        return inbox(beforeActivity, beforeId, limit, (pageSize, snippetLength) -> roomRepository
+                .findEmployeeInbox(employeeId, beforeActivity, beforeId, pageSize, snippetLength, UNREAD_COUNT_CAP));
     }
 
     public Mono<ChatRoom> createChatRoom(String customerId) {
@@ -43,21 +99,55 @@ public class ChatService {
                 .status(ChatRoomStatus.OPEN)
                 .build();
 
-        return roomRepository.save(room);
+        return repositoryMetrics.timed(ROOM_SAVE, roomRepository.save(room))
+                .doOnNext(roomCache::update)
+                .doOnNext(this::roomUpdated);
     }
 
     public Mono<ChatRoom> assignEmployee(Long roomId, String employeeId) {
-        return roomRepository.findById(roomId)
+        return repositoryMetrics.timed(ROOM_FIND_BY_ID, roomRepository.findById(roomId))
                 .switchIfEmpty(Mono.error(new ChatRoomNotFoundException(roomId)))
                 .map(room -> updateRoomWithEmployee(room, employeeId))
-                .flatMap(roomRepository::save);
+                .flatMap(this::saveRoom)
+                .doOnNext(roomCache::update)
+                .doOnNext(this::roomUpdated)
+                .doOnError(OptimisticLockingFailureException.class, e -> roomCache.invalidate(roomId));
+    }
+
+    /**
+     * Assigns the room only if it is still OPEN, and completes empty if it
+     * is not. A concurrent change of the room fails the save on its version.
+     */
+    public Mono<ChatRoom> assignOpenRoom(Long roomId, String employeeId) {
+        return repositoryMetrics.timed(ROOM_FIND_BY_ID, roomRepository.findById(roomId))
+                .filter(room -> room.getStatus() == ChatRoomStatus.OPEN)
+                .map(room -> updateRoomWithEmployee(room, employeeId))
+                .flatMap(this::saveRoom)
+                .doOnNext(roomCache::update)
+                .doOnNext(this::roomUpdated)
+                .doOnError(OptimisticLockingFailureException.class, e -> roomCache.invalidate(roomId));
+    }
+
+    public Flux<ChatRoom> getOpenRooms() {
+        return repositoryMetrics.timed(ROOM_FIND_BY_STATUS, roomRepository.findByStatus(ChatRoomStatus.OPEN));
+    }
+
+    /**
+     * Rooms created, assigned or updated through this service, after they
+     * were stored.
+     */
+    public Flux<ChatRoom> roomUpdates() {
+        return roomUpdates.asFlux();
     }
 
     public Mono<ChatRoom> updateRoom(Long id, ChatRoomUpdateRequest request) {
-        return roomRepository.findById(id)
+        return repositoryMetrics.timed(ROOM_FIND_BY_ID, roomRepository.findById(id))
                 .switchIfEmpty(Mono.error(new ChatRoomNotFoundException(id)))
                 .map(room -> updateRoomStatus(room, request))
-                .flatMap(roomRepository::save);
+                .flatMap(this::saveRoom)
+                .doOnNext(roomCache::update)
+                .doOnNext(this::roomUpdated)
+                .doOnError(OptimisticLockingFailureException.class, e -> roomCache.invalidate(id));
     }
 
     public Mono<ChatMessage> sendMessage(ChatMessage message, String senderId) {
@@ -66,30 +156,249 @@ public class ChatService {
                     message.setTimestamp(Instant.now());
                     message.setRead(false);
                     message.setSenderId(senderId);
-                    return messageRepository.save(message);
+                    return saveMessage(message);
                 }))
-                .flatMap(savedMessage -> updateRoomLastModified(savedMessage.getRoomId())
-                        .thenReturn(savedMessage));
+                .doOnNext(savedMessage -> {
+                    activityTracker.touch(savedMessage.getRoomId(), savedMessage.getTimestamp());
+                    recentMessages.append(savedMessage);
+                    messageFeed.publish(savedMessage);
+                });
+    }
+
+    /**
+     * Sends a message that did not arrive over a WebSocket and announces it
+     * on {@link #postedMessages()}, so that it reaches connected clients.
+     */
+    public Mono<ChatMessage> postMessage(ChatMessage message, String senderId) {
+        return sendMessage(message, senderId)
+                .doOnNext(savedMessage -> postedMessages.emitNext(savedMessage,
+                        Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT)));
+    }
+
+    public Flux<ChatMessage> postedMessages() {
+        return postedMessages.asFlux();
+    }
+
+    public Mono<ChatMessage> getMessage(Long messageId) {
+        return repositoryMetrics.timed(MESSAGE_FIND_BY_ID, messageRepository.findById(messageId))
+                .switchIfEmpty(Mono.error(new ChatMessageNotFoundException(messageId)));
     }
 
+    /**
+     * The whole history of a room, starting with messages that were moved to
+     * the archive after the room had been closed.
+     */
     public Flux<ChatMessage> getRoomMessages(Long roomId) {
         return validateRoomExists(roomId)
-                .thenMany(messageRepository.findByRoomIdOrderByTimestamp(roomId));
+                .thenMany(repositoryMetrics.timed(MESSAGE_ARCHIVED, messageRepository.findArchived(roomId)))
+                .concatWith(repositoryMetrics.timed(MESSAGE_HISTORY, messageRepository.findByRoomIdOrderByTimestamp(roomId)));
+    }
+
+    /**
+     * Returns one page of a room's history in chronological order. Without a
+     * cursor this is the newest page; {@code before} pages backwards and
+     * {@code after} pages forwards from the given message id. Pages are served
+     * from the room's recent messages when they cover them.
+     */
+    public Flux<ChatMessage> getRoomMessagePage(Long roomId, Long before, Long after, Integer limit) {
+        return Flux.defer(() -> {
+            if (before != null && after != null) {
+                throw new IllegalArgumentException("before and after cannot be combined");
+            }
+            int pageSize = pageSize(limit);
+
+            if (after != null) {
+                List<ChatMessage> recent = recentMessages.after(roomId, after, pageSize);
+                return validateRoomExists(roomId)
+                        .thenMany(recent != null
+                                ? Flux.fromIterable(recent)
+                                : repositoryMetrics.timed(MESSAGE_PAGE,
+                                        messageRepository.findPageAfter(roomId, after, pageSize)));
+            }
+            if (before != null) {
+                List<ChatMessage> recent = recentMessages.before(roomId, before, pageSize);
+                return validateRoomExists(roomId)
+                        .thenMany(recent != null
+                                ? Flux.fromIterable(recent)
+                                : chronological(repositoryMetrics.timed(MESSAGE_PAGE,
+                                        messageRepository.findPageBefore(roomId, before, pageSize))));
+            }
+            return validateRoomExists(roomId)
+                    .thenMany(latestPage(roomId, pageSize));
+        });
+    }
+
+    /**
+     * Streams the stored history after sequence number {@code afterSeq} and
+     * then follows new messages of the room. The live feed is subscribed
+     * before history is read, so messages stored while the history is
+     * streaming are not lost. Messages are emitted in sequence order: live
+     * messages already emitted are skipped, and a live message that arrives
+     * ahead of its predecessors is preceded by the missing ones, read from
+     * the table. Sequence numbers follow commit order, so unlike ids they
+     * leave nothing behind that commits late.
+     */
+    public Flux<ChatMessage> followRoomMessages(Long roomId, Long afterSeq) {
+        return validateRoomExists(roomId)
+                .thenMany(Flux.defer(() -> {
+                    Sinks.Many<ChatMessage> live = Sinks.many().unicast()
+                            .onBackpressureBuffer(Queues.<ChatMessage>get(LIVE_TAIL_BUFFER).get());
+                    Disposable subscription = messageFeed.room(roomId).subscribe(message -> {
+                        if (live.tryEmitNext(message).isFailure()) {
+                            live.tryEmitError(new IllegalStateException("Live tail of room " + roomId + " overflowed"));
+                        }
+                    });
+
+                    AtomicLong lastSeen = new AtomicLong(afterSeq != null ? afterSeq : 0L);
+                    return repositoryMetrics.timed(MESSAGE_HISTORY,
+                                    messageRepository.findByRoomIdAndSeqGreaterThanOrderBySeq(roomId, lastSeen.get()))
+                            .doOnNext(message -> lastSeen.set(message.getSeq()))
+                            .concatWith(live.asFlux().concatMap(message -> inSequence(roomId, message, lastSeen)))
+                            .doFinally(signal -> subscription.dispose());
+                }));
+    }
+
+    private Flux<ChatMessage> inSequence(Long roomId, ChatMessage message, AtomicLong lastSeen) {
+        long last = lastSeen.get();
+        if (message.getSeq() == null || message.getSeq() <= last) {
+            return Flux.empty();
+        }
+        if (message.getSeq() == last + 1) {
+            lastSeen.set(message.getSeq());
+            return Flux.just(message);
+        }
+        return repositoryMetrics.timed(MESSAGE_RESUME,
+                        messageRepository.findBySeqAfter(roomId, last, (int) Math.min(message.getSeq() - last, Integer.MAX_VALUE)))
+                .doOnNext(missed -> lastSeen.set(missed.getSeq()));
+    }
+
+    /**
+     * The messages of a room with a sequence number above {@code seq}, in
+     * sequence order, at most {@code limit} of them.
+     */
+    public Flux<ChatMessage> getRoomMessagesAfterSeq(Long roomId, long seq, int limit) {
+        return validateRoomExists(roomId)
+                .thenMany(repositoryMetrics.timed(MESSAGE_RESUME,
+                        messageRepository.findBySeqAfter(roomId, seq, limit)));
     }
 
     public Flux<ChatMessage> getRoomMessagesSince(Long roomId, Instant since) {
         return validateRoomExists(roomId)
-                .thenMany(messageRepository.findByRoomIdAndTimestampAfter(roomId, since));
+                .thenMany(repositoryMetrics.timed(MESSAGE_HISTORY,
+                        messageRepository.findByRoomIdAndTimestampAfter(roomId, since)));
+    }
+
+    /**
+     * Full-text search over stored messages, best match first. Without a time
+     * range only the default window up to now is searched, which keeps the
+     * query on the newest partitions. Only the newest {@code max-candidates}
+     * matches are ranked; narrower filters reach further back.
+     */
+    public Flux<MessageSearchHit> searchMessages(MessageSearchRequest request) {
+        return Flux.defer(() -> {
+            if (request.getQuery() == null || request.getQuery().isBlank()) {
+                throw new IllegalArgumentException("query is required");
+            }
+            if ((request.getAfterRank() == null) != (request.getAfterId() == null)) {
+                throw new IllegalArgumentException("afterRank and afterId must be given together");
+            }
+            ChatProperties.Search search = properties.getSearch();
+            Instant to = request.getTo() != null ? request.getTo() : Instant.now();
+            Instant from = request.getFrom() != null ? request.getFrom() : to.minus(search.getDefaultWindow());
+            int limit = pageSize(request.getLimit(), search.getDefaultPageSize(), search.getMaxPageSize());
+
+            return repositoryMetrics.timed(MESSAGE_SEARCH, messageRepository.search(request.getQuery(),
+                    request.getRoomId(), request.getCustomerId(), request.getEmployeeId(),
+                    from, to, request.getAfterRank(), request.getAfterId(), search.getMaxCandidates(), limit));
+        });
     }
 
     public Mono<Void> markMessagesAsRead(Long roomId, String readerId) {
-        return messageRepository.findByRoomIdOrderByTimestamp(roomId)
-                .filter(message -> !message.getRead() &&
-                        !message.getSenderId().equals(readerId))
-                .flatMap(this::markMessageAsRead)
+        return validateRoomExists(roomId)
+                .then(repositoryMetrics.timed(READ_WATERMARK_UPSERT,
+                        messageRepository.upsertReadWatermark(roomId, readerId)))
                 .then();
     }
 
+    public Flux<RoomUnreadCount> getUnreadCounts(String userId) {
+        return repositoryMetrics.timed(UNREAD_COUNT,
+                messageRepository.countUnreadByParticipant(userId, UNREAD_COUNT_CAP));
+    }
+
+    private Flux<ChatMessage> latestPage(Long roomId, int pageSize) {
+        return Flux.defer(() -> {
+            List<ChatMessage> recent = recentMessages.latest(roomId, pageSize);
+            if (recent != null) {
+                return Flux.fromIterable(recent);
+            }
+            if (pageSize > recentMessages.getCapacity()) {
+                return chronological(repositoryMetrics.timed(MESSAGE_PAGE,
+                        messageRepository.findLatestPage(roomId, pageSize)));
+            }
+            return recentMessages.fill(roomId, repositoryMetrics.timed(MESSAGE_PAGE,
+                            messageRepository.findLatestPage(roomId, recentMessages.getCapacity())))
+                    .takeLast(pageSize);
+        });
+    }
+
+    private Flux<ChatMessage> chronological(Flux<ChatMessage> newestFirst) {
+        return newestFirst
+                .collectList()
+                .flatMapIterable(page -> {
+                    Collections.reverse(page);
+                    return page;
+                });
+    }
+
+    private Flux<RoomInboxEntry> inbox(Instant beforeActivity, Long beforeId, Integer limit,
+                                       BiFunction<Integer, Integer, Flux<RoomInboxEntry>> query) {
+        return Flux.defer(() -> {
+            if ((beforeActivity == null) != (beforeId == null)) {
+                throw new IllegalArgumentException("beforeActivity and beforeId must be given together");
+            }
+            ChatProperties.Inbox inbox = properties.getInbox();
+            int pageSize = pageSize(limit, inbox.getDefaultPageSize(), inbox.getMaxPageSize());
+            return repositoryMetrics.timed(ROOM_INBOX, query.apply(pageSize, inbox.getSnippetLength()));
+        });
+    }
+
+    private int pageSize(Integer limit) {
+        ChatProperties.History history = properties.getHistory();
+        return pageSize(limit, history.getDefaultPageSize(), history.getMaxPageSize());
+    }
+
+    private static int pageSize(Integer limit, int defaultPageSize, int maxPageSize) {
+        if (limit == null) {
+            return defaultPageSize;
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, maxPageSize);
+    }
+
+    private Mono<ChatMessage> saveMessage(ChatMessage message) {
+        if (batchWriter.isRunning()) {
+            return batchWriter.insert(message);
+        }
+        return repositoryMetrics.timed(MESSAGE_SAVE, messageRepository.insert(
+                message.getRoomId(),
+                message.getSenderId(),
+                message.getSenderType() != null ? message.getSenderType().name() : null,
+                message.getContent(),
+                message.getMessageType() != null ? message.getMessageType().name() : null,
+                message.getTimestamp(),
+                message.getRead()));
+    }
+
+    private void roomUpdated(ChatRoom room) {
+        roomUpdates.emitNext(room, Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+    }
+
+    private Mono<ChatRoom> saveRoom(ChatRoom room) {
+        return repositoryMetrics.timed(ROOM_SAVE, roomRepository.save(room));
+    }
+
     private ChatRoom updateRoomWithEmployee(ChatRoom room, String employeeId) {
         room.setEmployeeId(employeeId);
         room.setStatus(ChatRoomStatus.ASSIGNED);
@@ -101,37 +410,11 @@ public class ChatService {
         return room;
     }
 
-    private Mono<ChatRoom> updateRoomLastModified(Long roomId) {
-        return roomRepository.findById(roomId)
-                .map(room -> {
-                    room.setLastModifiedDate(Instant.now());
-                    return room;
-                })
-                .flatMap(roomRepository::save);
-    }
-
-    private Mono<ChatMessage> markMessageAsRead(ChatMessage message) {
-        message.setRead(true);
-        return messageRepository.save(message);
-    }
-
     private Mono<Void> validateMessageRoom(Long roomId) {
-        return roomRepository.existsById(roomId)
-                .flatMap(exists -> {
-                    if (!exists) {
-                        return Mono.error(new ChatRoomNotFoundException(roomId));
-                    }
-                    return Mono.empty();
-                });
+        return getRoomSnapshot(roomId).then();
     }
 
     private Mono<Void> validateRoomExists(Long roomId) {
-        return roomRepository.existsById(roomId)
-                .flatMap(exists -> {
-                    if (!exists) {
-                        return Mono.error(new ChatRoomNotFoundException(roomId));
-                    }
-                    return Mono.empty();
-                });
+        return getRoomSnapshot(roomId).then();
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.bookshop.chat_service.chat.domain;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class MessageSearchHit {
+    Long id;
+    Long roomId;
+    String senderId;
+    SenderType senderType;
+    MessageType messageType;
+    Instant timestamp;
+    Long seq;
+    Float rank;
+    String snippet;
+}
@@ -0,0 +1,408 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The most recent messages of rooms that are being read, newest last, in the
+ * same (timestamp, id) order as history pages. A room gets a ring when its
+ * latest page is first loaded from the database. From then on every stored
+ * message is appended to it. Rooms nobody has opened have no ring, and
+ * appending to them is a single lookup.
+ * <p>
+ * A ring answers a page only if it holds the whole page, or if it holds the
+ * room's entire history. Otherwise the caller falls back to the database.
+ * Rings are evicted least recently read first once the memory budget is
+ * exceeded, and are dropped when nobody has read them for the idle timeout.
+ * <p>
+ * Appends arrive over the cluster bus, which may drop messages. A ring is
+ * dropped as soon as an appended seq skips past the newest one it holds,
+ * so it never answers a page with a silent gap.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class RecentMessageCache {
+
+    static final int SEGMENTS = 16;
+    static final long MESSAGE_OVERHEAD_BYTES = 160;
+    static final Comparator<ChatMessage> ORDER = Comparator
+            .comparing(ChatMessage::getTimestamp)
+            .thenComparing(ChatMessage::getId);
+
+    int capacity;
+    Segment[] segments = new Segment[SEGMENTS];
+    LongAdder hits = new LongAdder();
+    LongAdder misses = new LongAdder();
+    LongAdder evictions = new LongAdder();
+
+    public RecentMessageCache(ChatProperties properties, MeterRegistry meterRegistry) {
+        ChatProperties.RecentMessages recentMessages = properties.getRecentMessages();
+        this.capacity = recentMessages.getPerRoom();
+        long segmentBudget = Math.max(1, recentMessages.getMaxMemory().toBytes() / SEGMENTS);
+        long idleTimeoutNanos = recentMessages.getIdleTimeout().toNanos();
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity, segmentBudget, idleTimeoutNanos, evictions);
+        }
+
+        FunctionCounter.builder("chat.message.recent.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.message.recent.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.message.recent.evictions", evictions, LongAdder::sum)
+                .register(meterRegistry);
+        Gauge.builder("chat.message.recent.rooms", this, RecentMessageCache::rooms)
+                .register(meterRegistry);
+        Gauge.builder("chat.message.recent.memory", this, RecentMessageCache::bytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The newest {@code limit} messages in chronological order, or
+     * {@code null} if the room's ring cannot answer.
+     */
+    public List<ChatMessage> latest(Long roomId, int limit) {
+        return record(segmentFor(roomId).latest(roomId, limit));
+    }
+
+    public List<ChatMessage> before(Long roomId, Long messageId, int limit) {
+        return record(segmentFor(roomId).before(roomId, messageId, limit));
+    }
+
+    public List<ChatMessage> after(Long roomId, Long messageId, int limit) {
+        return record(segmentFor(roomId).after(roomId, messageId, limit));
+    }
+
+    /**
+     * Creates the room's ring from its newest stored messages. Messages
+     * appended while the query runs are merged with its result.
+     *
+     * @param newestFirst at most {@link #getCapacity()} messages, newest first
+     * @return the loaded messages in chronological order
+     */
+    public Flux<ChatMessage> fill(Long roomId, Flux<ChatMessage> newestFirst) {
+        return Flux.defer(() -> {
+            Segment segment = segmentFor(roomId);
+            Ring ring = segment.startFill(roomId);
+            return newestFirst.collectList()
+                    .doOnNext(rows -> segment.completeFill(roomId, ring, rows))
+                    .doFinally(signal -> {
+                        if (signal != SignalType.ON_COMPLETE) {
+                            segment.abortFill(roomId, ring);
+                        }
+                    })
+                    .flatMapIterable(rows -> {
+                        List<ChatMessage> chronological = new ArrayList<>(rows);
+                        Collections.reverse(chronological);
+                        return chronological;
+                    });
+        });
+    }
+
+    public void append(ChatMessage message) {
+        segmentFor(message.getRoomId()).append(message);
+    }
+
+    public void invalidate(Long roomId) {
+        segmentFor(roomId).invalidate(roomId);
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clearAll();
+        }
+    }
+
+    private List<ChatMessage> record(List<ChatMessage> page) {
+        if (page == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return page;
+    }
+
+    private int rooms() {
+        int rooms = 0;
+        for (Segment segment : segments) {
+            rooms += segment.rooms();
+        }
+        return rooms;
+    }
+
+    private long bytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(Long roomId) {
+        return segments[Long.hashCode(roomId) & (SEGMENTS - 1)];
+    }
+
+    private static long sizeOf(ChatMessage message) {
+        int chars = (message.getContent() != null ? message.getContent().length() : 0)
+                + (message.getSenderId() != null ? message.getSenderId().length() : 0);
+        return MESSAGE_OVERHEAD_BYTES + 2L * chars;
+    }
+
+    private static final class Ring {
+        final List<ChatMessage> messages = new ArrayList<>();
+        boolean ready;
+        boolean complete;
+        int loaders;
+        long bytes;
+        long newestSeq;
+        long lastRead = System.nanoTime();
+
+        int indexOf(Long messageId) {
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                if (messages.get(i).getId().equals(messageId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Inserts in (timestamp, id) order, scanning from the newest end where
+         * nearly every message lands. Returns the change in bytes.
+         */
+        long insert(ChatMessage message) {
+            int i = messages.size();
+            while (i > 0 && ORDER.compare(messages.get(i - 1), message) >= 0) {
+                if (messages.get(i - 1).getId().equals(message.getId())) {
+                    return 0;
+                }
+                i--;
+            }
+            messages.add(i, message);
+            newestSeq = Math.max(newestSeq, message.getSeq());
+            long size = sizeOf(message);
+            bytes += size;
+            return size;
+        }
+
+        long trimTo(int capacity) {
+            long removed = 0;
+            while (messages.size() > capacity) {
+                removed += sizeOf(messages.remove(0));
+                complete = false;
+            }
+            bytes -= removed;
+            return removed;
+        }
+
+        /**
+         * Whether an appended message follows on from the ring: its seq is at
+         * most one past the newest. An empty ring that is still loading
+         * accepts anything, the fill checks the result.
+         */
+        boolean follows(ChatMessage message) {
+            return message.getSeq() != null
+                    && (!ready && messages.isEmpty() || message.getSeq() <= newestSeq + 1);
+        }
+
+        /** Whether every seq from {@code seq} up to the newest is held. */
+        boolean contiguousFrom(long seq) {
+            return messages.stream()
+                    .mapToLong(ChatMessage::getSeq)
+                    .filter(held -> held >= seq)
+                    .distinct()
+                    .count() == newestSeq - seq + 1;
+        }
+
+        List<ChatMessage> copy(int from, int to) {
+            return new ArrayList<>(messages.subList(from, to));
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<Long, Ring> {
+
+        private final int capacity;
+        private final long budgetBytes;
+        private final long idleTimeoutNanos;
+        private final LongAdder evictions;
+        private long bytes;
+
+        Segment(int capacity, long budgetBytes, long idleTimeoutNanos, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.budgetBytes = budgetBytes;
+            this.idleTimeoutNanos = idleTimeoutNanos;
+            this.evictions = evictions;
+        }
+
+        synchronized List<ChatMessage> latest(Long roomId, int limit) {
+            Ring ring = readyRing(roomId);
+            if (ring == null) {
+                return null;
+            }
+            int size = ring.messages.size();
+            if (size >= limit) {
+                return ring.copy(size - limit, size);
+            }
+            return ring.complete ? ring.copy(0, size) : null;
+        }
+
+        synchronized List<ChatMessage> before(Long roomId, Long messageId, int limit) {
+            Ring ring = readyRing(roomId);
+            int index = ring != null ? ring.indexOf(messageId) : -1;
+            if (index < 0) {
+                return null;
+            }
+            if (index >= limit) {
+                return ring.copy(index - limit, index);
+            }
+            return ring.complete ? ring.copy(0, index) : null;
+        }
+
+        synchronized List<ChatMessage> after(Long roomId, Long messageId, int limit) {
+            Ring ring = readyRing(roomId);
+            int index = ring != null ? ring.indexOf(messageId) : -1;
+            if (index < 0) {
+                return null;
+            }
+            return ring.copy(index + 1, Math.min(ring.messages.size(), index + 1 + limit));
+        }
+
+        synchronized Ring startFill(Long roomId) {
+            Ring ring = super.get(roomId);
+            if (ring == null) {
+                ring = new Ring();
+                put(roomId, ring);
+            }
+            ring.loaders++;
+            return ring;
+        }
+
+        synchronized void completeFill(Long roomId, Ring ring, List<ChatMessage> newestFirst) {
+            if (super.get(roomId) != ring) {
+                return;
+            }
+            ring.loaders--;
+            long before = ring.bytes;
+            for (ChatMessage message : newestFirst) {
+                ring.insert(message);
+            }
+            // A message lost while the query ran leaves a gap above its newest row
+            if (!newestFirst.isEmpty() && !ring.contiguousFrom(newestFirst.get(0).getSeq())) {
+                remove(roomId);
+                bytes -= before;
+                return;
+            }
+            if (!ring.ready) {
+                ring.ready = true;
+                ring.complete = newestFirst.size() < capacity;
+            }
+            ring.trimTo(capacity);
+            ring.lastRead = System.nanoTime();
+            bytes += ring.bytes - before;
+            evictOverBudget();
+        }
+
+        synchronized void abortFill(Long roomId, Ring ring) {
+            if (super.get(roomId) != ring) {
+                return;
+            }
+            ring.loaders--;
+            if (!ring.ready && ring.loaders == 0) {
+                remove(roomId);
+                bytes -= ring.bytes;
+            }
+        }
+
+        synchronized void append(ChatMessage message) {
+            Ring ring = super.get(message.getRoomId());
+            if (ring == null) {
+                return;
+            }
+            if (!ring.follows(message)) {
+                remove(message.getRoomId());
+                bytes -= ring.bytes;
+                return;
+            }
+            bytes += ring.insert(message);
+            bytes -= ring.trimTo(capacity);
+            evictOverBudget();
+        }
+
+        synchronized void invalidate(Long roomId) {
+            Ring ring = remove(roomId);
+            if (ring != null) {
+                bytes -= ring.bytes;
+            }
+        }
+
+        synchronized void clearAll() {
+            clear();
+            bytes = 0;
+        }
+
+        synchronized int rooms() {
+            return size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        private Ring readyRing(Long roomId) {
+            long now = System.nanoTime();
+            expireIdle(now);
+            Ring ring = super.get(roomId);
+            if (ring == null || !ring.ready) {
+                return null;
+            }
+            ring.lastRead = now;
+            return ring;
+        }
+
+        // Access order puts the least recently read ring first, so expiry
+        // stops at the first ring that is still in use
+        private void expireIdle(long now) {
+            for (Iterator<Ring> it = values().iterator(); it.hasNext(); ) {
+                Ring ring = it.next();
+                if (ring.loaders > 0 || now - ring.lastRead < idleTimeoutNanos) {
+                    return;
+                }
+                it.remove();
+                bytes -= ring.bytes;
+                evictions.increment();
+            }
+        }
+
+        private void evictOverBudget() {
+            Iterator<Ring> it = values().iterator();
+            while (bytes > budgetBytes && size() > 1 && it.hasNext()) {
+                Ring ring = it.next();
+                it.remove();
+                bytes -= ring.bytes;
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.bookshop.chat_service.chat.domain;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the repository calls made by {@link ChatService}, one timer per
+ * operation. All timers are registered up front, so completing a call only
+ * records a nanosecond delta.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class RepositoryMetrics {
+
+    Map<Operation, Timer> timers = new EnumMap<>(Operation.class);
+
+    public RepositoryMetrics(MeterRegistry meterRegistry) {
+        for (Operation operation : Operation.values()) {
+            timers.put(operation, Timer.builder("chat.repository")
+                    .description("Time until a repository call completes")
+                    .tag("operation", operation.getTag())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    <T> Mono<T> timed(Operation operation, Mono<T> source) {
+        Timer timer = timers.get(operation);
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return source.doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    <T> Flux<T> timed(Operation operation, Flux<T> source) {
+        Timer timer = timers.get(operation);
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return source.doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    enum Operation {
+        ROOM_FIND_ALL("room.findAll"),
+        ROOM_FIND_BY_ID("room.findById"),
+        ROOM_FIND_BY_PARTICIPANT("room.findByParticipant"),
+        ROOM_FIND_BY_STATUS("room.findByStatus"),
+        ROOM_INBOX("room.inbox"),
+        ROOM_SAVE("room.save"),
+        MESSAGE_FIND_BY_ID("message.findById"),
+        MESSAGE_HISTORY("message.history"),
+        MESSAGE_PAGE("message.page"),
+        MESSAGE_SAVE("message.save"),
+        MESSAGE_RESUME("message.resume"),
+        MESSAGE_ARCHIVED("message.archived"),
+        MESSAGE_SEARCH("message.search"),
+        FILE_FIND_BY_ID("file.findById"),
+        FILE_SAVE("file.save"),
+        FILE_DELETE("file.delete"),
+        FILE_REFERENCED("file.referenced"),
+        READ_WATERMARK_UPSERT("readWatermark.upsert"),
+        UNREAD_COUNT("unread.count");
+
+        private final String tag;
+    }
+}
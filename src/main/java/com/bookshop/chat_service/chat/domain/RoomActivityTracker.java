@@ -0,0 +1,106 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces room last-activity timestamps and writes them with an atomic
+ * {@code GREATEST} update once per flush interval, instead of a
+ * read-modify-write of the versioned room on every message.
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class RoomActivityTracker implements SmartLifecycle {
+
+    static final Duration STOP_TIMEOUT = Duration.ofSeconds(10);
+
+    ChatProperties.RoomActivity properties;
+    ChatRoomRepository roomRepository;
+    Map<Long, Instant> pending = new ConcurrentHashMap<>();
+    Counter touches;
+    Counter writes;
+
+    @NonFinal
+    volatile Disposable flusher;
+
+    public RoomActivityTracker(ChatProperties properties, ChatRoomRepository roomRepository,
+                               MeterRegistry meterRegistry) {
+        this.properties = properties.getRoomActivity();
+        this.roomRepository = roomRepository;
+        this.touches = Counter.builder("chat.room.activity.touches")
+                .register(meterRegistry);
+        this.writes = Counter.builder("chat.room.activity.writes")
+                .register(meterRegistry);
+    }
+
+    public void touch(Long roomId, Instant activityDate) {
+        touches.increment();
+        merge(roomId, activityDate);
+    }
+
+    Mono<Void> flush() {
+        return Flux.fromIterable(pending.keySet())
+                .flatMap(roomId -> {
+                    Instant activityDate = pending.remove(roomId);
+                    if (activityDate == null) {
+                        return Mono.empty();
+                    }
+                    writes.increment();
+                    return roomRepository.touchLastModifiedDate(roomId, activityDate)
+                            .onErrorResume(e -> {
+                                log.warn("Failed to record activity of room {}: {}", roomId, e.getMessage());
+                                merge(roomId, activityDate);
+                                return Mono.empty();
+                            });
+                }, properties.getFlushConcurrency())
+                .then();
+    }
+
+    private void merge(Long roomId, Instant activityDate) {
+        pending.merge(roomId, activityDate, (current, candidate) -> candidate.isAfter(current) ? candidate : current);
+    }
+
+    @Override
+    public void start() {
+        flusher = Flux.interval(properties.getFlushInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> flush(), 0)
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = flusher;
+        if (current != null) {
+            current.dispose();
+            flusher = null;
+            flush().block(STOP_TIMEOUT);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return flusher != null;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
@@ -0,0 +1,311 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands OPEN rooms to connected employees as soon as one has spare capacity,
+ * longest waiting room first, to the least loaded employee. Connects,
+ * disconnects and room updates only touch concurrent maps and atomic
+ * counters. Matching runs in a drain loop entered by one signalling thread at
+ * a time, the others leave a missed-work count behind, so no thread ever
+ * waits on a lock.
+ * <p>
+ * An employee's load counts the ASSIGNED rooms it holds, including rooms
+ * assigned by hand. A room counts from the moment it is reserved for the
+ * employee until it is closed or reassigned. Room changes made through other
+ * replicas arrive as cluster events, and waiting rooms are rescanned at start
+ * and periodically after to pick up anything those events missed.
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class RoomAssignmentEngine implements SmartLifecycle {
+
+    static final Comparator<WaitingRoom> WAITING_ORDER = Comparator
+            .comparing(WaitingRoom::openedAt)
+            .thenComparing(WaitingRoom::roomId);
+
+    ChatProperties.Assignment properties;
+    ChatService chatService;
+    Map<String, Agent> agents = new ConcurrentHashMap<>();
+    Map<Long, String> assignedRooms = new ConcurrentHashMap<>();
+    Map<Long, WaitingRoom> waitingById = new ConcurrentHashMap<>();
+    NavigableSet<WaitingRoom> waiting = new ConcurrentSkipListSet<>(WAITING_ORDER);
+    AtomicInteger wip = new AtomicInteger();
+    Counter assignments;
+    Scheduler rescanScheduler;
+
+    @NonFinal
+    volatile Disposable subscriptions;
+
+    @Autowired
+    public RoomAssignmentEngine(ChatProperties properties, ChatService chatService, MeterRegistry meterRegistry) {
+        this(properties, chatService, meterRegistry, Schedulers.parallel());
+    }
+
+    RoomAssignmentEngine(ChatProperties properties, ChatService chatService, MeterRegistry meterRegistry,
+                         Scheduler rescanScheduler) {
+        this.properties = properties.getAssignment();
+        this.chatService = chatService;
+        this.rescanScheduler = rescanScheduler;
+        this.assignments = Counter.builder("chat.assignment.assigned")
+                .register(meterRegistry);
+        Gauge.builder("chat.assignment.waiting", waitingById, Map::size)
+                .register(meterRegistry);
+        Gauge.builder("chat.assignment.employees", agents, Map::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Makes the employee available for assignment once its current load has
+     * been loaded. Repeated connects of the same employee share one entry.
+     */
+    public void employeeConnected(String employeeId) {
+        if (!isRunning()) {
+            return;
+        }
+        Agent agent = agents.compute(employeeId, (id, current) -> {
+            Agent connected = current != null ? current : new Agent(id, properties.getCapacity());
+            connected.connections++;
+            return connected;
+        });
+        if (!agent.loading.compareAndSet(false, true)) {
+            return;
+        }
+        chatService.getEmployeeRooms(employeeId)
+                .filter(room -> room.getStatus() == ChatRoomStatus.ASSIGNED)
+                .doOnNext(room -> {
+                    if (assignedRooms.putIfAbsent(room.getId(), employeeId) == null) {
+                        agent.active.incrementAndGet();
+                    }
+                })
+                .then()
+                .subscribe(null,
+                        e -> log.warn("Could not load rooms of employee {}: {}", employeeId, e.getMessage()),
+                        () -> {
+                            agent.ready = true;
+                            drain();
+                        });
+    }
+
+    public void employeeDisconnected(String employeeId) {
+        Agent remaining = agents.computeIfPresent(employeeId, (id, agent) -> --agent.connections == 0 ? null : agent);
+        if (remaining == null) {
+            // The next connect counts the employee's rooms afresh
+            assignedRooms.values().removeIf(employeeId::equals);
+        }
+    }
+
+    /**
+     * Applies a change another replica made to the room. Cluster events only
+     * carry the room id, so the room is read back first.
+     */
+    public void remoteRoomChanged(Long roomId) {
+        if (!isRunning()) {
+            return;
+        }
+        chatService.getChatRoom(roomId)
+                .subscribe(this::roomChanged,
+                        e -> log.warn("Could not load room {} changed on another node: {}", roomId, e.getMessage()));
+    }
+
+    void roomChanged(ChatRoom room) {
+        Long roomId = room.getId();
+        String employeeId = room.getStatus() == ChatRoomStatus.ASSIGNED ? room.getEmployeeId() : null;
+        String previous = employeeId != null
+                ? assignedRooms.put(roomId, employeeId)
+                : assignedRooms.remove(roomId);
+        if (!Objects.equals(previous, employeeId)) {
+            adjust(previous, -1);
+            adjust(employeeId, 1);
+        }
+
+        if (room.getStatus() == ChatRoomStatus.OPEN) {
+            enqueue(room);
+        } else {
+            dequeue(roomId);
+        }
+        drain();
+    }
+
+    int waitingRooms() {
+        return waitingById.size();
+    }
+
+    private void enqueue(ChatRoom room) {
+        if (assignedRooms.containsKey(room.getId())) {
+            // Reserved and being assigned, or already assigned
+            return;
+        }
+        Instant openedAt = room.getCreatedDate() != null ? room.getCreatedDate() : Instant.now();
+        WaitingRoom entry = new WaitingRoom(openedAt, room.getId());
+        if (waitingById.putIfAbsent(room.getId(), entry) == null) {
+            waiting.add(entry);
+        }
+    }
+
+    private void dequeue(Long roomId) {
+        WaitingRoom entry = waitingById.remove(roomId);
+        if (entry != null) {
+            waiting.remove(entry);
+        }
+    }
+
+    private void adjust(String employeeId, int delta) {
+        Agent agent = employeeId != null ? agents.get(employeeId) : null;
+        if (agent != null) {
+            agent.active.addAndGet(delta);
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (true) {
+                Iterator<WaitingRoom> oldest = waiting.iterator();
+                if (!oldest.hasNext()) {
+                    break;
+                }
+                WaitingRoom next = oldest.next();
+                Agent agent = reserveLeastLoaded();
+                if (agent == null) {
+                    break;
+                }
+                if (!waiting.remove(next)) {
+                    agent.active.decrementAndGet();
+                    continue;
+                }
+                waitingById.remove(next.roomId(), next);
+                assign(next.roomId(), agent);
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private Agent reserveLeastLoaded() {
+        while (true) {
+            Agent best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (Agent agent : agents.values()) {
+                int load = agent.active.get();
+                if (agent.ready && load < agent.capacity && load < bestLoad) {
+                    best = agent;
+                    bestLoad = load;
+                }
+            }
+            if (best == null || best.active.compareAndSet(bestLoad, bestLoad + 1)) {
+                return best;
+            }
+        }
+    }
+
+    // The room update emitted by a successful assignment finds the room already counted
+    private void assign(Long roomId, Agent agent) {
+        assignedRooms.put(roomId, agent.employeeId);
+        chatService.assignOpenRoom(roomId, agent.employeeId)
+                .hasElement()
+                .onErrorResume(e -> {
+                    log.warn("Could not assign room {} to {}: {}", roomId, agent.employeeId, e.getMessage());
+                    return Mono.just(false);
+                })
+                .subscribe(assigned -> {
+                    if (assigned) {
+                        assignments.increment();
+                        log.debug("Assigned room {} to employee {}", roomId, agent.employeeId);
+                    } else if (assignedRooms.remove(roomId, agent.employeeId)) {
+                        agent.active.decrementAndGet();
+                        drain();
+                    }
+                });
+    }
+
+    private void rescan() {
+        chatService.getOpenRooms()
+                .doOnNext(this::enqueue)
+                .then()
+                .subscribe(null,
+                        e -> log.warn("Could not load waiting rooms: {}", e.getMessage()),
+                        this::drain);
+    }
+
+    @Override
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        subscriptions = Disposables.composite(
+                chatService.roomUpdates()
+                        .subscribe(this::roomChanged),
+                Flux.interval(Duration.ZERO, properties.getRescanInterval(), rescanScheduler)
+                        .onBackpressureDrop()
+                        .subscribe(tick -> rescan()));
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = subscriptions;
+        if (current != null) {
+            current.dispose();
+            subscriptions = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return subscriptions != null;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private record WaitingRoom(Instant openedAt, Long roomId) {
+    }
+
+    private static final class Agent {
+        final String employeeId;
+        final int capacity;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicBoolean loading = new AtomicBoolean();
+        volatile boolean ready;
+        // Only changed inside compute calls on the agents map
+        int connections;
+
+        Agent(String employeeId, int capacity) {
+            this.employeeId = employeeId;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.bookshop.chat_service.chat.domain;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RoomInboxEntry {
+    Long roomId;
+    String customerId;
+    String employeeId;
+    ChatRoomStatus status;
+    Instant lastActivity;
+    Long lastMessageId;
+    String lastMessageSenderId;
+    String lastMessageSnippet;
+    Instant lastMessageTimestamp;
+    Long unreadCount;
+}
@@ -0,0 +1,15 @@
+package com.bookshop.chat_service.chat.domain;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RoomUnreadCount {
+    Long roomId;
+    Long lastReadMessageId;
+    Long unreadCount;
+}
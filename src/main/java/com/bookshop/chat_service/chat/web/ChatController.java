@@ -1,22 +1,43 @@
 package com.bookshop.chat_service.chat.web;
 
+import com.bookshop.chat_service.chat.domain.ChatFileService;
 import com.bookshop.chat_service.chat.domain.ChatMessage;
 import com.bookshop.chat_service.chat.domain.ChatRoom;
 import com.bookshop.chat_service.chat.domain.ChatService;
+import com.bookshop.chat_service.chat.domain.MessageSearchHit;
+import com.bookshop.chat_service.chat.domain.RoomInboxEntry;
+import com.bookshop.chat_service.chat.domain.RoomUnreadCount;
+import com.bookshop.chat_service.chat.domain.SenderType;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
 @RestController
 @RequestMapping("chats")
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class ChatController {
 
+    static final Duration SSE_KEEP_ALIVE_INTERVAL = Duration.ofSeconds(15);
+    static final CacheControl FILE_CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable();
+
     ChatService chatService;
+    ChatFileService chatFileService;
 
     @GetMapping("/rooms")
     public Flux<ChatRoom> getChatRooms() {
@@ -29,8 +50,12 @@ public class ChatController {
     }
 
     @GetMapping("/messages/{roomId}")
-    public Flux<ChatMessage> getChatMessageByRoomId(@PathVariable Long roomId) {
-        return chatService.getRoomMessages(roomId);
+    public Flux<ChatMessage> getChatMessageByRoomId(
+            @PathVariable Long roomId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit) {
+        return chatService.getRoomMessagePage(roomId, before, after, limit);
     }
 
     @PostMapping("/rooms")
@@ -54,10 +79,70 @@ public class ChatController {
     }
 
     @GetMapping("/rooms/{roomId}/messages")
-    public Flux<ChatMessage> getMessages(@PathVariable Long roomId) {
+    public Flux<ChatMessage> getMessages(
+            @PathVariable Long roomId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit) {
+        return chatService.getRoomMessagePage(roomId, before, after, limit);
+    }
+
+    @GetMapping(value = "/rooms/{roomId}/messages", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ChatMessage> streamMessages(@PathVariable Long roomId) {
         return chatService.getRoomMessages(roomId);
     }
 
+    // Event ids are room sequence numbers, so Last-Event-ID resumes after the last one received
+    @GetMapping(value = "/rooms/{roomId}/messages", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatMessage>> followMessages(
+            @PathVariable Long roomId,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        Flux<ServerSentEvent<ChatMessage>> messages = chatService.followRoomMessages(roomId, lastEventId)
+                .map(message -> ServerSentEvent.builder(message)
+                        .id(String.valueOf(message.getSeq()))
+                        .event("message")
+                        .build());
+        Flux<ServerSentEvent<ChatMessage>> keepAlive = Flux.interval(SSE_KEEP_ALIVE_INTERVAL)
+                .map(tick -> ServerSentEvent.<ChatMessage>builder().comment("keep-alive").build());
+        return messages.mergeWith(keepAlive);
+    }
+
+    /**
+     * Takes the file as the raw request body, which is streamed to the file
+     * store and never aggregated in memory.
+     */
+    @PostMapping("/rooms/{roomId}/files")
+    public Mono<ChatMessage> uploadFile(
+            @PathVariable Long roomId,
+            @RequestParam String senderId,
+            @RequestParam SenderType senderType,
+            @RequestParam String fileName,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) MediaType contentType,
+            @RequestBody Flux<DataBuffer> content) {
+        return chatFileService.upload(roomId, senderId, senderType, fileName, contentType, content);
+    }
+
+    // Range requests and zero-copy transfer are handled by the resource writer
+    @GetMapping("/files/{fileId}")
+    public Mono<ResponseEntity<Resource>> downloadFile(@PathVariable Long fileId) {
+        return chatFileService.getFile(fileId)
+                .map(file -> ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType(file.getContentType()))
+                        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                                .filename(file.getFileName(), StandardCharsets.UTF_8)
+                                .build()
+                                .toString())
+                        .header("X-Content-Type-Options", "nosniff")
+                        .eTag(file.getSha256())
+                        .cacheControl(FILE_CACHE_CONTROL)
+                        .body(chatFileService.getContent(file)));
+    }
+
+    @GetMapping("/messages/search")
+    public Flux<MessageSearchHit> searchMessages(MessageSearchRequest request) {
+        return chatService.searchMessages(request);
+    }
+
     @GetMapping("/rooms/customer/{customerId}")
     public Flux<ChatRoom> getCustomerRooms(@PathVariable String customerId) {
         return chatService.getCustomerRooms(customerId);
@@ -68,6 +153,29 @@ public class ChatController {
         return chatService.getEmployeeRooms(employeeId);
     }
 
+    @GetMapping("/rooms/customer/{customerId}/inbox")
+    public Flux<RoomInboxEntry> getCustomerInbox(
+            @PathVariable String customerId,
+            @RequestParam(required = false) Instant beforeActivity,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(required = false) Integer limit) {
+        return chatService.getCustomerInbox(customerId, beforeActivity, beforeId, limit);
+    }
+
+    @GetMapping("/rooms/employee/{employeeId}/inbox")
+    public Flux<RoomInboxEntry> getEmployeeInbox(
+            @PathVariable String employeeId,
+            @RequestParam(required = false) Instant beforeActivity,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(required = false) Integer limit) {
+        return chatService.getEmployeeInbox(employeeId, beforeActivity, beforeId, limit);
+    }
+
+    @GetMapping("/rooms/unread/{userId}")
+    public Flux<RoomUnreadCount> getUnreadCounts(@PathVariable String userId) {
+        return chatService.getUnreadCounts(userId);
+    }
+
     @PutMapping("/rooms/{roomId}/read")
     public Mono<Void> markAsRead(
             @PathVariable Long roomId,
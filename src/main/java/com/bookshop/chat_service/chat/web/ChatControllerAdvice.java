@@ -1,6 +1,8 @@
 package com.bookshop.chat_service.chat.web;
 
 import com.bookshop.chat_service.chat.domain.ChatAccessDeniedException;
+import com.bookshop.chat_service.chat.domain.ChatFileNotFoundException;
+import com.bookshop.chat_service.chat.domain.ChatFileTooLargeException;
 import com.bookshop.chat_service.chat.domain.ChatMessageNotFoundException;
 import com.bookshop.chat_service.chat.domain.ChatRoomNotFoundException;
 import com.bookshop.chat_service.chat.domain.InvalidChatOperationException;
@@ -29,6 +31,22 @@ public class ChatControllerAdvice {
                 .build());
     }
 
+    @ExceptionHandler(ChatFileNotFoundException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public Mono<ErrorResponse> handleChatFileNotFoundException(ChatFileNotFoundException ex) {
+        return Mono.just(ErrorResponse.builder()
+                .message(ex.getMessage())
+                .build());
+    }
+
+    @ExceptionHandler(ChatFileTooLargeException.class)
+    @ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+    public Mono<ErrorResponse> handleChatFileTooLargeException(ChatFileTooLargeException ex) {
+        return Mono.just(ErrorResponse.builder()
+                .message(ex.getMessage())
+                .build());
+    }
+
     @ExceptionHandler(ChatAccessDeniedException.class)
     @ResponseStatus(HttpStatus.FORBIDDEN)
     public Mono<ErrorResponse> handleChatAccessDeniedException(ChatAccessDeniedException ex) {
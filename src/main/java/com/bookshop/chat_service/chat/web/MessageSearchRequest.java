@@ -0,0 +1,26 @@
+package com.bookshop.chat_service.chat.web;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+
+/**
+ * Query parameters of a message search. Results are ordered by rank; pass the
+ * {@code rank} and {@code id} of the last hit as {@code afterRank} and
+ * {@code afterId} to get the next page.
+ */
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class MessageSearchRequest {
+    String query;
+    Long roomId;
+    String customerId;
+    String employeeId;
+    Instant from;
+    Instant to;
+    Float afterRank;
+    Long afterId;
+    Integer limit;
+}
@@ -0,0 +1,192 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.chat.domain.MessageType;
+import com.bookshop.chat_service.chat.domain.SenderType;
+import org.springframework.web.reactive.socket.WebSocketMessage.Type;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Compact tagged encoding carried in binary frames.
+ *
+ * <pre>
+ * type     u8       index into {@link #TYPES} plus one, 0 for none,
+ *                   {@code 0x7F} followed by the type as a string
+ * fields   varint   bit mask of the fields that follow, in bit order
+ * roomId, messageId, seq            varint
+ * senderId, content, typingUserId   varint length + UTF-8 bytes
+ * senderType, messageType           u8 enum ordinal
+ * timestamp                         varint epoch second + varint nanos
+ * isTyping                          carried in the mask only
+ * </pre>
+ */
+final class BinaryWebSocketCodec implements WebSocketCodec {
+
+    static final String SUB_PROTOCOL = "chat.v1.binary";
+
+    static final List<String> TYPES = List.of(
+            "SEND_MESSAGE", "TYPING", "STOP_TYPING", "ROOM_CLOSE",
+            "NEW_MESSAGE", "USER_TYPING", "USER_STOPPED_TYPING", "JOIN",
+            "RESUME", "RESUMED", "RESUME_RESET", "RATE_LIMITED");
+
+    private static final int TYPE_NONE = 0;
+    private static final int TYPE_CUSTOM = 0x7F;
+
+    private static final int ROOM_ID = 1;
+    private static final int MESSAGE_ID = 1 << 1;
+    private static final int SENDER_ID = 1 << 2;
+    private static final int SENDER_TYPE = 1 << 3;
+    private static final int MESSAGE_TYPE = 1 << 4;
+    private static final int CONTENT = 1 << 5;
+    private static final int TIMESTAMP = 1 << 6;
+    private static final int TYPING_USER_ID = 1 << 7;
+    private static final int IS_TYPING = 1 << 8;
+    private static final int IS_TYPING_TRUE = 1 << 9;
+    private static final int SEQ = 1 << 10;
+
+    private static final SenderType[] SENDER_TYPES = SenderType.values();
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public String getSubProtocol() {
+        return SUB_PROTOCOL;
+    }
+
+    @Override
+    public Type getFrameType() {
+        return Type.BINARY;
+    }
+
+    @Override
+    public void encode(WebSocketMessage message, OutputStream out) throws IOException {
+        int typeIndex = message.getType() != null ? TYPES.indexOf(message.getType()) : -1;
+        if (message.getType() == null) {
+            out.write(TYPE_NONE);
+        } else if (typeIndex < 0) {
+            out.write(TYPE_CUSTOM);
+            writeString(out, message.getType());
+        } else {
+            out.write(typeIndex + 1);
+        }
+
+        int fields = 0;
+        if (message.getRoomId() != null) fields |= ROOM_ID;
+        if (message.getMessageId() != null) fields |= MESSAGE_ID;
+        if (message.getSenderId() != null) fields |= SENDER_ID;
+        if (message.getSenderType() != null) fields |= SENDER_TYPE;
+        if (message.getMessageType() != null) fields |= MESSAGE_TYPE;
+        if (message.getContent() != null) fields |= CONTENT;
+        if (message.getTimestamp() != null) fields |= TIMESTAMP;
+        if (message.getTypingUserId() != null) fields |= TYPING_USER_ID;
+        if (message.getSeq() != null) fields |= SEQ;
+        if (message.getIsTyping() != null) {
+            fields |= message.getIsTyping() ? IS_TYPING | IS_TYPING_TRUE : IS_TYPING;
+        }
+        writeVarLong(out, fields);
+
+        if ((fields & ROOM_ID) != 0) writeVarLong(out, message.getRoomId());
+        if ((fields & MESSAGE_ID) != 0) writeVarLong(out, message.getMessageId());
+        if ((fields & SENDER_ID) != 0) writeString(out, message.getSenderId());
+        if ((fields & SENDER_TYPE) != 0) out.write(message.getSenderType().ordinal());
+        if ((fields & MESSAGE_TYPE) != 0) out.write(message.getMessageType().ordinal());
+        if ((fields & CONTENT) != 0) writeString(out, message.getContent());
+        if ((fields & TIMESTAMP) != 0) {
+            writeVarLong(out, message.getTimestamp().getEpochSecond());
+            writeVarLong(out, message.getTimestamp().getNano());
+        }
+        if ((fields & TYPING_USER_ID) != 0) writeString(out, message.getTypingUserId());
+        if ((fields & SEQ) != 0) writeVarLong(out, message.getSeq());
+    }
+
+    @Override
+    public WebSocketMessage decode(InputStream in) throws IOException {
+        WebSocketMessage message = new WebSocketMessage();
+
+        int type = readByte(in);
+        if (type == TYPE_CUSTOM) {
+            message.setType(readString(in));
+        } else if (type != TYPE_NONE) {
+            if (type > TYPES.size()) {
+                throw new IOException("Unknown message type " + type);
+            }
+            message.setType(TYPES.get(type - 1));
+        }
+
+        long fields = readVarLong(in);
+        if ((fields & ROOM_ID) != 0) message.setRoomId(readVarLong(in));
+        if ((fields & MESSAGE_ID) != 0) message.setMessageId(readVarLong(in));
+        if ((fields & SENDER_ID) != 0) message.setSenderId(readString(in));
+        if ((fields & SENDER_TYPE) != 0) message.setSenderType(readEnum(in, SENDER_TYPES));
+        if ((fields & MESSAGE_TYPE) != 0) message.setMessageType(readEnum(in, MESSAGE_TYPES));
+        if ((fields & CONTENT) != 0) message.setContent(readString(in));
+        if ((fields & TIMESTAMP) != 0) {
+            long seconds = readVarLong(in);
+            message.setTimestamp(Instant.ofEpochSecond(seconds, readVarLong(in)));
+        }
+        if ((fields & TYPING_USER_ID) != 0) message.setTypingUserId(readString(in));
+        if ((fields & SEQ) != 0) message.setSeq(readVarLong(in));
+        if ((fields & IS_TYPING) != 0) message.setIsTyping((fields & IS_TYPING_TRUE) != 0);
+        return message;
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length > in.available()) {
+            throw new EOFException("String length " + length + " exceeds frame");
+        }
+        return new String(in.readNBytes((int) length), StandardCharsets.UTF_8);
+    }
+
+    private static <E extends Enum<E>> E readEnum(InputStream in, E[] values) throws IOException {
+        int ordinal = readByte(in);
+        if (ordinal >= values.length) {
+            throw new IOException("Unknown " + values[0].getDeclaringClass().getSimpleName() + " " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
@@ -0,0 +1,52 @@
+package com.bookshop.chat_service.config;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Hands one message to the outbound queues of local sessions, encoding it
+ * at most once per codec. A recipient that fails to encode or accept the
+ * frame is counted and skipped, the others still get it.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class BroadcastFanOut {
+
+    ChatWebSocketMetrics metrics;
+
+    void send(List<ChatSession> recipients, WebSocketMessage message) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        BroadcastFrame frame = new BroadcastFrame(message, metrics);
+        RuntimeException failure = null;
+        int failed = 0;
+        try {
+            for (ChatSession recipient : recipients) {
+                try {
+                    recipient.send(frame);
+                } catch (RuntimeException e) {
+                    metrics.encodingFailed();
+                    failure = e;
+                    failed++;
+                }
+            }
+        } finally {
+            frame.release();
+        }
+        if (failure != null) {
+            log.error("Error encoding {} message for room {} to {} of {} recipients",
+                    message.getType(), message.getRoomId(), failed, recipients.size(), failure);
+        }
+        metrics.broadcastCompleted(start, recipients.size());
+    }
+}
@@ -0,0 +1,82 @@
+package com.bookshop.chat_service.config;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * An outbound message serialized at most once per codec into a pooled
+ * buffer. Every recipient gets a retained duplicate of the bytes for its
+ * session's codec, and the broadcast releases its own references once the
+ * fan-out has been handed to all sessions.
+ * <p>
+ * A frame is filled from the broadcasting thread only and is not safe for
+ * concurrent {@link #retain} calls.
+ */
+final class BroadcastFrame {
+
+    private static final NettyDataBufferFactory BUFFER_FACTORY =
+            new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private static final int MAX_CODECS = 2;
+
+    private final WebSocketMessage message;
+    private final ChatWebSocketMetrics metrics;
+    private final WebSocketCodec[] codecs = new WebSocketCodec[MAX_CODECS];
+    private final ByteBuf[] payloads = new ByteBuf[MAX_CODECS];
+
+    BroadcastFrame(WebSocketMessage message, ChatWebSocketMetrics metrics) {
+        this.message = message;
+        this.metrics = metrics;
+    }
+
+    WebSocketMessage getMessage() {
+        return message;
+    }
+
+    org.springframework.web.reactive.socket.WebSocketMessage retain(WebSocketCodec codec) {
+        return new org.springframework.web.reactive.socket.WebSocketMessage(
+                codec.getFrameType(), BUFFER_FACTORY.wrap(payload(codec).retainedDuplicate()));
+    }
+
+    void release() {
+        for (int i = 0; i < MAX_CODECS && codecs[i] != null; i++) {
+            payloads[i].release();
+        }
+    }
+
+    private ByteBuf payload(WebSocketCodec codec) {
+        int i = 0;
+        for (; i < MAX_CODECS && codecs[i] != null; i++) {
+            if (codecs[i] == codec) {
+                return payloads[i];
+            }
+        }
+        if (i == MAX_CODECS) {
+            throw new IllegalStateException("More codecs than " + MAX_CODECS);
+        }
+
+        ByteBuf payload = encode(codec);
+        codecs[i] = codec;
+        payloads[i] = payload;
+        metrics.frameEncoded(codec, payload.readableBytes());
+        return payload;
+    }
+
+    private ByteBuf encode(WebSocketCodec codec) {
+        ByteBuf payload = BUFFER_FACTORY.getByteBufAllocator().buffer();
+        try (ByteBufOutputStream out = new ByteBufOutputStream(payload)) {
+            codec.encode(message, out);
+            return payload;
+        } catch (IOException e) {
+            payload.release();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            payload.release();
+            throw e;
+        }
+    }
+}
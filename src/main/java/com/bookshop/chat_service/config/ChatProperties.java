@@ -0,0 +1,178 @@
+package com.bookshop.chat_service.config;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@ConfigurationProperties(prefix = "chat")
+public class ChatProperties {
+
+    RoomCache roomCache = new RoomCache();
+    Outbound outbound = new Outbound();
+    Inbound inbound = new Inbound();
+    RateLimit rateLimit = new RateLimit();
+    Cluster cluster = new Cluster();
+    WriteBehind writeBehind = new WriteBehind();
+    RoomActivity roomActivity = new RoomActivity();
+    History history = new History();
+    Typing typing = new Typing();
+    RecentMessages recentMessages = new RecentMessages();
+    Resume resume = new Resume();
+    Archive archive = new Archive();
+    Search search = new Search();
+    Assignment assignment = new Assignment();
+    Inbox inbox = new Inbox();
+    Files files = new Files();
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class RoomCache {
+        int maxSize = 10_000;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Outbound {
+        int queueCapacity = 256;
+        SlowConsumerPolicy overflowPolicy = SlowConsumerPolicy.DROP_TYPING;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Inbound {
+        int maxInFlight = 16;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class RateLimit {
+        boolean enabled = true;
+        FrameLimit sendMessage = new FrameLimit(5, 10, 10, 20);
+        FrameLimit typing = new FrameLimit(4, 8, 8, 16);
+        FrameLimit other = new FrameLimit(10, 20, 20, 40);
+        int maxViolations = 50;
+        Duration violationWindow = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Sustained frames per second and burst size, for one session and for
+     * all sessions of a user together.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class FrameLimit {
+        double sessionRate;
+        int sessionBurst;
+        double userRate;
+        int userBurst;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Cluster {
+        boolean enabled = false;
+        String channel = "chat_events";
+        int batchSize = 64;
+        Duration batchWindow = Duration.ofMillis(10);
+        int maxPending = 10000;
+        Duration reconnectDelay = Duration.ofSeconds(1);
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class WriteBehind {
+        boolean enabled = false;
+        int maxBatchSize = 100;
+        Duration maxDelay = Duration.ofMillis(5);
+        int lanes = 4;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class RoomActivity {
+        Duration flushInterval = Duration.ofSeconds(1);
+        int flushConcurrency = 2;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class History {
+        int defaultPageSize = 50;
+        int maxPageSize = 200;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Typing {
+        Duration rebroadcastInterval = Duration.ofSeconds(2);
+        Duration expiry = Duration.ofSeconds(6);
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class RecentMessages {
+        int perRoom = 50;
+        DataSize maxMemory = DataSize.ofMegabytes(64);
+        Duration idleTimeout = Duration.ofMinutes(10);
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Resume {
+        int maxReplay = 200;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Archive {
+        boolean enabled = true;
+        Duration interval = Duration.ofHours(1);
+        Duration closedFor = Duration.ofDays(30);
+        int batchSize = 100;
+        int partitionsAhead = 3;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Search {
+        int defaultPageSize = 20;
+        int maxPageSize = 100;
+        Duration defaultWindow = Duration.ofDays(90);
+        int maxCandidates = 10000;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Assignment {
+        boolean enabled = true;
+        int capacity = 5;
+        Duration rescanInterval = Duration.ofSeconds(30);
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Inbox {
+        int defaultPageSize = 20;
+        int maxPageSize = 100;
+        int snippetLength = 120;
+    }
+
+    @Data
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Files {
+        String directory = "data/chat-files";
+        DataSize maxSize = DataSize.ofMegabytes(25);
+        Duration sweepInterval = Duration.ofHours(1);
+        Duration orphanGrace = Duration.ofHours(1);
+    }
+}
@@ -0,0 +1,150 @@
+package com.bookshop.chat_service.config;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+final class ChatSession {
+
+    String userId;
+    WebSocketSession session;
+    OutboundQueue outbound;
+    @Getter(AccessLevel.NONE)
+    ChatWebSocketMetrics metrics;
+    @Getter(AccessLevel.NONE)
+    Map<Long, List<WebSocketMessage>> resuming = new HashMap<>();
+
+    @NonFinal
+    volatile boolean anyResuming;
+
+    ChatSession(String userId, WebSocketSession session, WebSocketCodec codec,
+                ChatProperties.Outbound properties, ChatWebSocketMetrics metrics) {
+        this.userId = userId;
+        this.session = session;
+        this.outbound = new OutboundQueue(session, codec, properties, metrics);
+        this.metrics = metrics;
+    }
+
+    boolean isOpen() {
+        return session.isOpen();
+    }
+
+    void send(BroadcastFrame frame) {
+        if (anyResuming && holdWhileResuming(frame.getMessage())) {
+            return;
+        }
+        outbound.offer(frame);
+    }
+
+    /**
+     * Sends a message to this session only, bypassing any resume in progress.
+     */
+    void sendDirect(WebSocketMessage message) {
+        BroadcastFrame frame = new BroadcastFrame(message, metrics);
+        try {
+            outbound.offer(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Holds back live room messages while the gap since the client's last
+     * seen sequence number is being replayed.
+     *
+     * @return false if the room is already being resumed
+     */
+    boolean beginResume(Long roomId) {
+        synchronized (resuming) {
+            if (resuming.putIfAbsent(roomId, new ArrayList<>()) != null) {
+                return false;
+            }
+            anyResuming = true;
+            return true;
+        }
+    }
+
+    /**
+     * Sends the held-back messages the replay did not cover, then the marker,
+     * and switches the room back to live delivery.
+     *
+     * @param replayedSeq last sequence number sent by the replay; held-back
+     *                    messages at or below it are duplicates
+     * @return the last sequence number the client has now been sent
+     */
+    long endResume(Long roomId, long replayedSeq, WebSocketMessage marker) {
+        synchronized (resuming) {
+            List<WebSocketMessage> held = resuming.remove(roomId);
+            anyResuming = !resuming.isEmpty();
+
+            long lastSeq = replayedSeq;
+            if (held != null) {
+                held.sort(Comparator.comparing(WebSocketMessage::getSeq));
+                for (WebSocketMessage message : held) {
+                    if (message.getSeq() > lastSeq) {
+                        sendDirect(message);
+                        lastSeq = message.getSeq();
+                    }
+                }
+            }
+            marker.setSeq(lastSeq);
+            sendDirect(marker);
+            return lastSeq;
+        }
+    }
+
+    /**
+     * Drops the held-back messages and sends the marker, for when the gap
+     * cannot be replayed.
+     */
+    void abortResume(Long roomId, WebSocketMessage marker) {
+        synchronized (resuming) {
+            resuming.remove(roomId);
+            anyResuming = !resuming.isEmpty();
+            sendDirect(marker);
+        }
+    }
+
+    private boolean holdWhileResuming(WebSocketMessage message) {
+        if (!"NEW_MESSAGE".equals(message.getType()) || message.getSeq() == null) {
+            return false;
+        }
+        synchronized (resuming) {
+            List<WebSocketMessage> held = resuming.get(message.getRoomId());
+            if (held == null) {
+                return false;
+            }
+            held.add(message);
+            return true;
+        }
+    }
+
+    /**
+     * Runs the session's only outbound pipeline. Closes the session once the
+     * queue has been completed and drained.
+     */
+    Mono<Void> runOutbound() {
+        return session.send(outbound.frames())
+                .doOnError(e -> metrics.transportFailed())
+                .then(Mono.defer(() -> session.isOpen() ? session.close() : Mono.empty()));
+    }
+
+    void ping() {
+        outbound.ping();
+    }
+
+    void closeAfterDrain() {
+        outbound.complete();
+    }
+}
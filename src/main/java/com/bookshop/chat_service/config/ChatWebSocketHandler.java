@@ -1,26 +1,32 @@
 package com.bookshop.chat_service.config;
 
 import com.bookshop.chat_service.chat.domain.ChatMessage;
+import com.bookshop.chat_service.chat.domain.ChatRoomSnapshot;
 import com.bookshop.chat_service.chat.domain.ChatRoomStatus;
 import com.bookshop.chat_service.chat.domain.ChatService;
 import com.bookshop.chat_service.chat.domain.MessageType;
+import com.bookshop.chat_service.chat.domain.RoomAssignmentEngine;
+import com.bookshop.chat_service.chat.domain.SenderType;
 import com.bookshop.chat_service.chat.web.ChatRoomUpdateRequest;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
-import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.reactive.socket.CloseStatus;
 import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage.Type;
 import org.springframework.web.reactive.socket.WebSocketSession;
-import reactor.core.publisher.Flux;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.BufferOverflowStrategy;
 import reactor.core.publisher.Mono;
 
+import java.security.Principal;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 @Slf4j
 @Component
@@ -28,42 +34,178 @@ import java.util.concurrent.ConcurrentHashMap;
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class ChatWebSocketHandler implements WebSocketHandler {
 
+    static final int REMOTE_BACKLOG = 4096;
+
     ChatService chatService;
-    ObjectMapper objectMapper;
+    WebSocketCodecs codecs;
+    ChatProperties properties;
+    ChatWebSocketMetrics metrics;
+    ClusterBroadcastBus clusterBus;
+    TypingIndicatorTracker typingTracker;
+    RoomAssignmentEngine assignmentEngine;
+    SessionRegistry sessionRegistry;
+    RoomLanes roomLanes;
+    SessionHeartbeat heartbeat;
+    WebSocketProperties webSocketProperties;
+    InboundRateLimiter rateLimiter;
+    BroadcastFanOut broadcastFanOut;
+
+    @PostConstruct
+    void subscribeToCluster() {
+        clusterBus.remoteRoomMessages()
+                .onBackpressureBuffer(REMOTE_BACKLOG, BufferOverflowStrategy.DROP_OLDEST)
+                .concatMap(event -> deliverToLocalParticipants(event.getRoomId(), event.getMessage())
+                        .onErrorResume(e -> {
+                            log.error("Error delivering cluster event for room {}: {}",
+                                    event.getRoomId(), e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+
+        chatService.roomUpdates()
+                .subscribe(room -> sessionRegistry.roomChanged(ChatRoomSnapshot.from(room)));
+
+        chatService.postedMessages()
+                .flatMap(message -> broadcastToRoomParticipants(message)
+                        .onErrorResume(e -> {
+                            log.error("Error broadcasting posted message {} to room {}: {}",
+                                    message.getId(), message.getRoomId(), e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+
+        typingTracker.expirations()
+                .subscribe(expired -> broadcastStoppedTyping(expired.getRoomId(), expired.getUserId(), null)
+                        .subscribe());
+    }
 
-    @NonFinal
-    final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
-    @NonFinal
-    final Map<Long, Set<String>> typingUsersByRoom = new ConcurrentHashMap<>();
+    @Override
+    public List<String> getSubProtocols() {
+        return codecs.getSubProtocols();
+    }
 
     @Override
     public Mono<Void> handle(WebSocketSession session) {
-        String userId = session.getHandshakeInfo().getUri().getQuery().split("=")[1];
-        sessions.put(userId, session);
-        log.info("User {} connected to WebSocket", userId);
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(session.getHandshakeInfo().getUri())
+                .build()
+                .getQueryParams();
+        String userId = params.getFirst("userId");
+        if (userId == null || userId.isBlank()) {
+            return session.close(CloseStatus.POLICY_VIOLATION.withReason("userId is required"));
+        }
 
-        return session.receive()
-                .map(webSocketMessage -> {
+        // Only a verified token makes a session available for room assignment, never a query parameter
+        return session.getHandshakeInfo().getPrincipal()
+                .filter(SecurityConfig::isVerified)
+                .map(principal -> authorize(session, userId, principal))
+                .defaultIfEmpty(Mono.defer(() -> connect(session, userId, false)))
+                .flatMap(Function.identity());
+    }
+
+    private Mono<Void> authorize(WebSocketSession session, String userId, Principal principal) {
+        if (!userId.equals(principal.getName())) {
+            return session.close(CloseStatus.POLICY_VIOLATION.withReason("userId does not match the token"));
+        }
+        return connect(session, userId, SecurityConfig.isEmployee(principal));
+    }
+
+    private Mono<Void> connect(WebSocketSession session, String userId, boolean employee) {
+        WebSocketCodec codec = codecs.negotiated(session.getHandshakeInfo().getSubProtocol());
+        ChatSession chatSession = new ChatSession(userId, session, codec, properties.getOutbound(), metrics);
+        sessionRegistry.register(chatSession);
+        metrics.sessionOpened();
+        if (employee) {
+            assignmentEngine.employeeConnected(userId);
+        }
+        log.info("User {} connected to WebSocket using {}", userId, codec.getSubProtocol());
+
+        SessionHeartbeat.Watch watch = heartbeat.watch(chatSession);
+        InboundRateLimiter.SessionLimits rateLimits = rateLimiter.session(userId);
+
+        Mono<Void> inbound = session.receive()
+                .doOnNext(frame -> watch.seen())
+                .filter(frame -> frame.getType() == Type.TEXT || frame.getType() == Type.BINARY)
+                .filter(frame -> withinSizeLimit(frame, session))
+                .map(frame -> {
                     try {
-                        return objectMapper.readValue(
-                                webSocketMessage.getPayloadAsText(), WebSocketMessage.class);
+                        WebSocketMessage message = codecs.forFrame(frame.getType())
+                                .decode(frame.getPayload().asInputStream());
+                        metrics.inboundFrame(message.getType());
+                        return message;
                     } catch (Exception e) {
+                        metrics.inboundFrameInvalid();
                         throw new RuntimeException("Error parsing message", e);
                     }
                 })
-                .flatMap(message -> processMessage(message, session, userId))
+                .filter(message -> admitted(message, chatSession, rateLimits))
+                .flatMap(message -> inRoomOrder(message, chatSession, userId),
+                        properties.getInbound().getMaxInFlight())
                 .doFinally(signal -> {
-                    sessions.remove(userId);
-                    cleanupTypingIndicators(userId);
+                    watch.cancel();
+                    boolean lastSession = sessionRegistry.unregister(chatSession);
+                    metrics.sessionClosed();
+                    chatSession.closeAfterDrain();
+                    rateLimiter.release(rateLimits);
+                    if (lastSession) {
+                        cleanupTypingIndicators(userId);
+                    }
+                    if (employee) {
+                        assignmentEngine.employeeDisconnected(userId);
+                    }
                     log.info("User {} disconnected from WebSocket", userId);
                 })
                 .then();
+
+        return Mono.when(inbound, chatSession.runOutbound());
+    }
+
+    private boolean withinSizeLimit(org.springframework.web.reactive.socket.WebSocketMessage frame,
+                                    WebSocketSession session) {
+        int limit = frame.getType() == Type.TEXT
+                ? webSocketProperties.getMaxTextMessageBufferSize()
+                : webSocketProperties.getMaxBinaryMessageBufferSize();
+        if (frame.getPayload().readableByteCount() <= limit) {
+            return true;
+        }
+        metrics.inboundFrameTooLarge();
+        session.close(CloseStatus.TOO_BIG_TO_PROCESS).subscribe();
+        return false;
+    }
+
+    // Over-limit TYPING frames are dropped silently, other frames are answered
+    private boolean admitted(WebSocketMessage message, ChatSession session,
+                             InboundRateLimiter.SessionLimits limits) {
+        switch (rateLimiter.admit(limits, message.getType())) {
+            case ACCEPTED:
+                return true;
+            case REJECTED:
+                if (!"TYPING".equals(message.getType())) {
+                    session.sendDirect(marker("RATE_LIMITED", message.getRoomId()));
+                }
+                return false;
+            default:
+                if (session.isOpen()) {
+                    log.warn("Closing session {} of user {}: rate limit exceeded repeatedly",
+                            session.getSession().getId(), session.getUserId());
+                    session.getSession().close(CloseStatus.POLICY_VIOLATION.withReason("Rate limit exceeded"))
+                            .subscribe();
+                }
+                return false;
+        }
+    }
+
+    // Frames of one room are processed in arrival order, rooms in parallel
+    private Mono<Void> inRoomOrder(WebSocketMessage message, ChatSession session, String userId) {
+        if (message.getRoomId() == null) {
+            return processMessage(message, session, userId);
+        }
+        return roomLanes.submit(message.getRoomId(), () -> processMessage(message, session, userId));
     }
 
-    private Mono<Void> processMessage(WebSocketMessage message, WebSocketSession session, String userId) {
-        return chatService.getChatRoom(message.getRoomId())
+    private Mono<Void> processMessage(WebSocketMessage message, ChatSession session, String userId) {
+        return chatService.getRoomSnapshot(message.getRoomId())
                 .flatMap(chatRoom -> {
-                    if (ChatRoomStatus.CLOSED.equals(chatRoom.getStatus())) {
+                    if (chatRoom.isClosed()) {
                         log.info("Room {} is CLOSED for user {}", message.getRoomId(), userId);
                         return processClose(message, session, userId);
                     }
@@ -78,6 +220,10 @@ public class ChatWebSocketHandler implements WebSocketHandler {
                                 return processStopTyping(message, userId);
                             case "ROOM_CLOSE":
                                 return processClose(message, session, userId);
+                            case "JOIN":
+                                return processJoin(message, session, userId, chatRoom);
+                            case "RESUME":
+                                return processResume(message, session, userId, chatRoom);
                             default:
                                 return Mono.empty();
                         }
@@ -90,12 +236,12 @@ public class ChatWebSocketHandler implements WebSocketHandler {
                 .onErrorResume(e -> {
                     log.error("Error checking room status for room {}: {}",
                             message.getRoomId(), e.getMessage(), e);
-                    return session.close(CloseStatus.SERVER_ERROR.withReason("Error checking room status"));
+                    return session.getSession().close(CloseStatus.SERVER_ERROR.withReason("Error checking room status"));
                 });
     }
 
 
-    private Mono<Void> processClose(WebSocketMessage message, WebSocketSession session, String userId) {
+    private Mono<Void> processClose(WebSocketMessage message, ChatSession session, String userId) {
         Long roomId = message.getRoomId();
 
         ChatRoomUpdateRequest request = new ChatRoomUpdateRequest();
@@ -113,15 +259,88 @@ public class ChatWebSocketHandler implements WebSocketHandler {
         return chatService.updateRoom(roomId, request)
                 .then(broadcastToRoomParticipants(roomId, closeMessage))
                 .doOnSuccess(v -> log.debug("Room {} is  close", roomId))
-                .then(session.close(CloseStatus.NORMAL))
-                .then(Mono.never());
+                .doOnSuccess(v -> session.closeAfterDrain());
+    }
+
+    /**
+     * Replays the room's messages after {@code messageId}, or its latest page,
+     * to the joining session only.
+     */
+    private Mono<Void> processJoin(WebSocketMessage message, ChatSession session, String userId,
+                                   ChatRoomSnapshot room) {
+        if (!userId.equals(room.getCustomerId()) && !userId.equals(room.getEmployeeId())) {
+            log.warn("User {} is not a participant of room {}", userId, room.getId());
+            return Mono.empty();
+        }
+
+        sessionRegistry.index(room);
+        List<ChatSession> joining = List.of(session);
+        return chatService.getRoomMessagePage(room.getId(), null, message.getMessageId(), null)
+                .concatMap(catchUp -> fanOut(joining, WebSocketMessage.newMessage(catchUp)))
+                .then();
+    }
+
+    /**
+     * Replays the messages of a room the client missed, by sequence number,
+     * and then switches it to live delivery. A RESUMED frame carrying the
+     * last sequence number sent marks the switch. Live messages that arrive
+     * during the replay are held back and sent after it, so the client sees
+     * every sequence number in order; it should drop any it has already seen.
+     * If the gap is larger than the replay limit the client gets
+     * RESUME_RESET and should reload the room's latest page instead.
+     */
+    private Mono<Void> processResume(WebSocketMessage message, ChatSession session, String userId,
+                                     ChatRoomSnapshot room) {
+        if (!userId.equals(room.getCustomerId()) && !userId.equals(room.getEmployeeId())) {
+            log.warn("User {} is not a participant of room {}", userId, room.getId());
+            return Mono.empty();
+        }
+
+        sessionRegistry.index(room);
+        Long roomId = room.getId();
+        long lastSeq = message.getSeq() != null ? message.getSeq() : 0L;
+        int maxReplay = properties.getResume().getMaxReplay();
+        if (!session.beginResume(roomId)) {
+            return Mono.empty();
+        }
+
+        return chatService.getRoomMessagesAfterSeq(roomId, lastSeq, maxReplay + 1)
+                .collectList()
+                .doOnNext(gap -> {
+                    if (gap.size() > maxReplay) {
+                        session.abortResume(roomId, marker("RESUME_RESET", roomId));
+                        return;
+                    }
+                    long replayedSeq = lastSeq;
+                    for (ChatMessage missed : gap) {
+                        session.sendDirect(WebSocketMessage.newMessage(missed));
+                        replayedSeq = missed.getSeq();
+                    }
+                    long resumedAt = session.endResume(roomId, replayedSeq, marker("RESUMED", roomId));
+                    log.debug("User {} resumed room {} from seq {} to {}", userId, roomId, lastSeq, resumedAt);
+                })
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Could not resume room {} for user {}: {}", roomId, userId, e.getMessage());
+                    session.abortResume(roomId, marker("RESUME_RESET", roomId));
+                    return Mono.empty();
+                });
+    }
+
+    private static WebSocketMessage marker(String type, Long roomId) {
+        WebSocketMessage marker = new WebSocketMessage();
+        marker.setType(type);
+        marker.setRoomId(roomId);
+        marker.setTimestamp(Instant.now());
+        return marker;
     }
 
     private Mono<Void> processTyping(WebSocketMessage message, String userId) {
         Long roomId = message.getRoomId();
 
-        typingUsersByRoom.computeIfAbsent(roomId, k -> ConcurrentHashMap.newKeySet())
-                .add(userId);
+        if (!typingTracker.typing(roomId, userId)) {
+            return Mono.empty();
+        }
 
         WebSocketMessage typingMessage = new WebSocketMessage();
         typingMessage.setType("USER_TYPING");
@@ -139,25 +358,28 @@ public class ChatWebSocketHandler implements WebSocketHandler {
     private Mono<Void> processStopTyping(WebSocketMessage message, String userId) {
         Long roomId = message.getRoomId();
 
-        if (typingUsersByRoom.containsKey(roomId)) {
-            typingUsersByRoom.get(roomId).remove(userId);
+        if (!typingTracker.stopped(roomId, userId)) {
+            return Mono.empty();
         }
 
+        return broadcastStoppedTyping(roomId, userId, message.getSenderType())
+                .doOnSuccess(v -> log.debug("User {} stopped typing in room {}", userId, roomId));
+    }
+
+    private Mono<Void> broadcastStoppedTyping(Long roomId, String userId, SenderType senderType) {
         WebSocketMessage stopTypingMessage = new WebSocketMessage();
         stopTypingMessage.setType("USER_STOPPED_TYPING");
         stopTypingMessage.setRoomId(roomId);
         stopTypingMessage.setSenderId(userId);
-        stopTypingMessage.setSenderType(message.getSenderType());
+        stopTypingMessage.setSenderType(senderType);
         stopTypingMessage.setIsTyping(false);
         stopTypingMessage.setTypingUserId(userId);
         stopTypingMessage.setTimestamp(Instant.now());
 
         // Broadcast to other participants in the room
-        return broadcastToRoomParticipants(roomId, stopTypingMessage)
-                .doOnSuccess(v -> log.debug("User {} stopped typing in room {}", userId, roomId));
+        return broadcastToRoomParticipants(roomId, stopTypingMessage);
     }
 
-
     private Mono<Void> processSendMessage(WebSocketMessage message, String userId) {
         if (message.getRoomId() == null) {
             log.error("❌ Room ID is null in message from user: {}", userId);
@@ -188,65 +410,35 @@ public class ChatWebSocketHandler implements WebSocketHandler {
     }
 
     private Mono<Void> broadcastToRoomParticipants(ChatMessage message) {
-        WebSocketMessage wsMessage = new WebSocketMessage();
-        wsMessage.setType("NEW_MESSAGE");
-        wsMessage.setRoomId(message.getRoomId());
-        wsMessage.setContent(message.getContent());
-        wsMessage.setSenderId(message.getSenderId());
-        wsMessage.setSenderType(message.getSenderType());
-        wsMessage.setTimestamp(message.getTimestamp());
-
-        return broadcastToRoomParticipants(message.getRoomId(), wsMessage);
+        return broadcastToRoomParticipants(message.getRoomId(), WebSocketMessage.newMessage(message));
     }
 
     private Mono<Void> broadcastToRoomParticipants(Long roomId, WebSocketMessage message) {
-        return chatService.getChatRoom(roomId)
-                .flatMapMany(room -> {
-                    List<String> participants = new ArrayList<>();
-                    if (room.getCustomerId() != null) {
-                        participants.add(room.getCustomerId());
-                    }
-                    if (room.getEmployeeId() != null) {
-                        participants.add(room.getEmployeeId());
-                    }
-
-                    return Flux.fromIterable(participants)
-                            .filter(sessions::containsKey)
-                            .flatMap(participantId -> {
-                                WebSocketSession session = sessions.get(participantId);
-                                if (session != null && session.isOpen()) {
-                                    try {
-                                        String messageJson = objectMapper.writeValueAsString(message);
-                                        return session.send(Mono.just(session.textMessage(messageJson)));
-                                    } catch (Exception e) {
-                                        log.error("Error sending message to user {}", participantId, e);
-                                        return Mono.empty();
-                                    }
-                                }
-                                return Mono.empty();
-                            });
-                })
-                .then();
+        clusterBus.publish(roomId, message);
+        return deliverToLocalParticipants(roomId, message);
     }
 
-    private void cleanupTypingIndicators(String userId) {
-        typingUsersByRoom.forEach((roomId, typingUsers) -> {
-            if (typingUsers.remove(userId)) {
-                WebSocketMessage stopTypingMessage = new WebSocketMessage();
-                stopTypingMessage.setType("USER_STOPPED_TYPING");
-                stopTypingMessage.setRoomId(roomId);
-                stopTypingMessage.setTypingUserId(userId);
-                stopTypingMessage.setIsTyping(false);
-                stopTypingMessage.setTimestamp(Instant.now());
+    Mono<Void> deliverToLocalParticipants(Long roomId, WebSocketMessage message) {
+        List<ChatSession> recipients = sessionRegistry.roomSessions(roomId);
+        if (recipients != null) {
+            return fanOut(recipients, message);
+        }
+        return chatService.getRoomSnapshot(roomId)
+                .flatMap(room -> fanOut(sessionRegistry.index(room), message));
+    }
 
-                broadcastToRoomParticipants(roomId, stopTypingMessage).subscribe();
-            }
-        });
+    private Mono<Void> fanOut(List<ChatSession> recipients, WebSocketMessage message) {
+        broadcastFanOut.send(recipients, message);
+        return Mono.empty();
+    }
 
-        typingUsersByRoom.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+    private void cleanupTypingIndicators(String userId) {
+        for (Long roomId : typingTracker.removeUser(userId)) {
+            broadcastStoppedTyping(roomId, userId, null).subscribe();
+        }
     }
 
     public Set<String> getTypingUsers(Long roomId) {
-        return typingUsersByRoom.getOrDefault(roomId, Collections.emptySet());
+        return typingTracker.getTypingUsers(roomId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+package com.bookshop.chat_service.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WebSocket meters. Tags only take values from fixed sets (known frame
+ * types, codec names, failure reasons), and every meter the hot path records
+ * to is resolved up front or once per session.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ChatWebSocketMetrics {
+
+    static final List<String> INBOUND_TYPES = List.of("SEND_MESSAGE", "TYPING", "STOP_TYPING", "ROOM_CLOSE", "JOIN", "RESUME");
+
+    MeterRegistry meterRegistry;
+    AtomicInteger activeSessions = new AtomicInteger();
+    AtomicInteger queuedFrames = new AtomicInteger();
+    Map<String, Counter> inboundFrames = new HashMap<>();
+    Counter otherInboundFrames;
+    Counter invalidInboundFrames;
+    Counter oversizedInboundFrames;
+    Map<String, Counter> outboundFrames = new ConcurrentHashMap<>();
+    Map<String, DistributionSummary> frameSizes = new ConcurrentHashMap<>();
+    DistributionSummary outboundQueueDepth;
+    Counter droppedTypingFrames;
+    Counter coalescedTypingFrames;
+    Counter encodingFailures;
+    Counter transportFailures;
+    Counter slowConsumerDisconnects;
+    Counter reapedSessions;
+    Timer broadcastLatency;
+    DistributionSummary broadcastRecipients;
+
+    public ChatWebSocketMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("chat.websocket.sessions", activeSessions, AtomicInteger::get)
+                .description("Open WebSocket sessions on this node")
+                .register(meterRegistry);
+        Gauge.builder("chat.websocket.outbound.queued", queuedFrames, AtomicInteger::get)
+                .register(meterRegistry);
+        for (String type : INBOUND_TYPES) {
+            inboundFrames.put(type, inboundFrameCounter(type));
+        }
+        otherInboundFrames = inboundFrameCounter("other");
+        invalidInboundFrames = inboundFrameCounter("invalid");
+        oversizedInboundFrames = inboundFrameCounter("too_large");
+        outboundQueueDepth = DistributionSummary.builder("chat.websocket.outbound.queue.depth")
+                .description("Per-session outbound queue depth observed on enqueue")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        droppedTypingFrames = Counter.builder("chat.websocket.outbound.dropped")
+                .tag("reason", "overflow")
+                .register(meterRegistry);
+        coalescedTypingFrames = Counter.builder("chat.websocket.outbound.dropped")
+                .tag("reason", "coalesced")
+                .register(meterRegistry);
+        encodingFailures = Counter.builder("chat.websocket.outbound.failures")
+                .tag("reason", "encoding")
+                .register(meterRegistry);
+        transportFailures = Counter.builder("chat.websocket.outbound.failures")
+                .tag("reason", "transport")
+                .register(meterRegistry);
+        slowConsumerDisconnects = Counter.builder("chat.websocket.slow_consumer.disconnects")
+                .register(meterRegistry);
+        reapedSessions = Counter.builder("chat.websocket.sessions.reaped")
+                .description("Sessions closed after exceeding the idle timeout")
+                .register(meterRegistry);
+        broadcastLatency = Timer.builder("chat.websocket.broadcast")
+                .description("Time to encode a room event and hand it to every local recipient")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        broadcastRecipients = DistributionSummary.builder("chat.websocket.broadcast.recipients")
+                .register(meterRegistry);
+    }
+
+    void sessionOpened() {
+        activeSessions.incrementAndGet();
+    }
+
+    void sessionClosed() {
+        activeSessions.decrementAndGet();
+    }
+
+    void inboundFrame(String type) {
+        Counter counter = type != null ? inboundFrames.get(type) : null;
+        (counter != null ? counter : otherInboundFrames).increment();
+    }
+
+    void inboundFrameInvalid() {
+        invalidInboundFrames.increment();
+    }
+
+    void inboundFrameTooLarge() {
+        oversizedInboundFrames.increment();
+    }
+
+    /**
+     * Counter of frames written to sessions using the given codec, resolved
+     * once per session.
+     */
+    Counter outboundFrames(WebSocketCodec codec) {
+        return outboundFrames.computeIfAbsent(codec.getName(), name -> Counter.builder("chat.websocket.outbound.frames")
+                .tag("codec", name)
+                .register(meterRegistry));
+    }
+
+    void frameEncoded(WebSocketCodec codec, int bytes) {
+        DistributionSummary frameSize = frameSizes.get(codec.getName());
+        if (frameSize == null) {
+            frameSize = frameSizes.computeIfAbsent(codec.getName(), name -> DistributionSummary.builder("chat.websocket.outbound.frame.size")
+                    .description("Encoded size of broadcast frames")
+                    .baseUnit("bytes")
+                    .tag("codec", name)
+                    .register(meterRegistry));
+        }
+        frameSize.record(bytes);
+    }
+
+    void frameQueued(int depth) {
+        queuedFrames.incrementAndGet();
+        outboundQueueDepth.record(depth);
+    }
+
+    void framesDequeued(int count) {
+        queuedFrames.addAndGet(-count);
+    }
+
+    void typingFrameDropped() {
+        droppedTypingFrames.increment();
+    }
+
+    void typingFrameCoalesced() {
+        coalescedTypingFrames.increment();
+    }
+
+    void encodingFailed() {
+        encodingFailures.increment();
+    }
+
+    void transportFailed() {
+        transportFailures.increment();
+    }
+
+    void slowConsumerDisconnected() {
+        slowConsumerDisconnects.increment();
+    }
+
+    void sessionReaped() {
+        reapedSessions.increment();
+    }
+
+    void broadcastCompleted(long startNanos, int recipients) {
+        broadcastLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        broadcastRecipients.record(recipients);
+    }
+
+    private Counter inboundFrameCounter(String type) {
+        return Counter.builder("chat.websocket.inbound.frames")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+}
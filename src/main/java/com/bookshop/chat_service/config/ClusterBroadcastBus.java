@@ -0,0 +1,346 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.chat.domain.ChatMessage;
+import com.bookshop.chat_service.chat.domain.ChatMessageFeed;
+import com.bookshop.chat_service.chat.domain.ChatRoomCache;
+import com.bookshop.chat_service.chat.domain.ChatService;
+import com.bookshop.chat_service.chat.domain.RecentMessageCache;
+import com.bookshop.chat_service.chat.domain.RoomAssignmentEngine;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcConnectionDetails;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+import reactor.util.retry.Retry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans room events out to the other chat-service replicas through Postgres
+ * LISTEN/NOTIFY. Each node publishes the events it produces once, batched
+ * into as few notifications as fit the NOTIFY payload limit, and delivers
+ * events from other nodes only to its own connected sessions.
+ * <p>
+ * Outbound events wait in a bounded multi-producer queue that is drained as
+ * fast as notifications are sent. Publishing never blocks or spins: while
+ * the NOTIFY connection is stalled and the queue is full, new events are
+ * dropped and counted.
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ClusterBroadcastBus implements SmartLifecycle {
+
+    static final int MAX_PAYLOAD_BYTES = 7900;
+
+    String nodeId = UUID.randomUUID().toString();
+    ChatProperties.Cluster properties;
+    R2dbcConnectionDetails connectionDetails;
+    DatabaseClient databaseClient;
+    ObjectMapper objectMapper;
+    ChatRoomCache roomCache;
+    ChatService chatService;
+    ChatMessageFeed messageFeed;
+    RecentMessageCache recentMessages;
+    SessionRegistry sessionRegistry;
+    RoomAssignmentEngine assignmentEngine;
+
+    Queue<ClusterEvent> outbound = Queues.<ClusterEvent>unboundedMultiproducer().get();
+    AtomicInteger outboundSize = new AtomicInteger();
+    AtomicInteger wip = new AtomicInteger();
+    Sinks.Many<ClusterEvent> inbound = Sinks.many().multicast().directBestEffort();
+    Counter droppedEvents;
+
+    @NonFinal
+    volatile Disposable subscriptions;
+    @NonFinal
+    volatile FluxSink<ClusterEvent> emitter;
+
+    public ClusterBroadcastBus(ChatProperties properties,
+                               R2dbcConnectionDetails connectionDetails,
+                               DatabaseClient databaseClient,
+                               ObjectMapper objectMapper,
+                               ChatRoomCache roomCache,
+                               ChatService chatService,
+                               ChatMessageFeed messageFeed,
+                               RecentMessageCache recentMessages,
+                               SessionRegistry sessionRegistry,
+                               RoomAssignmentEngine assignmentEngine,
+                               MeterRegistry meterRegistry) {
+        this.properties = properties.getCluster();
+        this.connectionDetails = connectionDetails;
+        this.databaseClient = databaseClient;
+        this.objectMapper = objectMapper;
+        this.roomCache = roomCache;
+        this.chatService = chatService;
+        this.messageFeed = messageFeed;
+        this.recentMessages = recentMessages;
+        this.sessionRegistry = sessionRegistry;
+        this.assignmentEngine = assignmentEngine;
+        this.droppedEvents = Counter.builder("chat.cluster.outbound.dropped")
+                .description("Cluster events dropped because the outbound queue was full")
+                .register(meterRegistry);
+        Gauge.builder("chat.cluster.outbound.queued", outboundSize, AtomicInteger::get)
+                .register(meterRegistry);
+
+        if (!this.properties.getChannel().matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid cluster channel name: " + this.properties.getChannel());
+        }
+    }
+
+    public void publish(Long roomId, WebSocketMessage message) {
+        if (isRunning()) {
+            enqueue(ClusterEvent.roomMessage(roomId, message));
+        }
+    }
+
+    /**
+     * Room messages published by other nodes, in the order they were published.
+     */
+    public Flux<ClusterEvent> remoteRoomMessages() {
+        return inbound.asFlux();
+    }
+
+    @Override
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        subscriptions = Disposables.composite(
+                roomCache.changes()
+                        .subscribe(roomId -> enqueue(ClusterEvent.roomChanged(roomId))),
+                Flux.create(this::attach)
+                        .bufferTimeout(properties.getBatchSize(), properties.getBatchWindow(), true)
+                        .concatMap(this::notifyBatch)
+                        .subscribe(),
+                listen()
+                        .subscribe());
+        log.info("Cluster broadcast bus started on channel {} as node {}", properties.getChannel(), nodeId);
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = subscriptions;
+        if (current != null) {
+            current.dispose();
+            subscriptions = null;
+        }
+        outbound.clear();
+        outboundSize.set(0);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return subscriptions != null;
+    }
+
+    private void enqueue(ClusterEvent event) {
+        if (outboundSize.incrementAndGet() > properties.getMaxPending()) {
+            outboundSize.decrementAndGet();
+            droppedEvents.increment();
+            return;
+        }
+        outbound.offer(event);
+        drain();
+    }
+
+    private void attach(FluxSink<ClusterEvent> sink) {
+        emitter = sink;
+        sink.onRequest(n -> drain());
+        sink.onDispose(() -> emitter = null);
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            FluxSink<ClusterEvent> sink = emitter;
+            if (sink != null) {
+                while (sink.requestedFromDownstream() > 0) {
+                    ClusterEvent event = outbound.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    outboundSize.decrementAndGet();
+                    sink.next(event);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private Mono<Void> notifyBatch(List<ClusterEvent> events) {
+        List<String> payloads = new ArrayList<>();
+        encode(events, payloads);
+
+        return Flux.fromIterable(payloads)
+                .concatMap(payload -> databaseClient.sql("SELECT pg_notify(:channel, :payload)")
+                        .bind("channel", properties.getChannel())
+                        .bind("payload", payload)
+                        .then())
+                .onErrorResume(e -> {
+                    log.warn("Failed to publish {} cluster events: {}", events.size(), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private void encode(List<ClusterEvent> events, List<String> payloads) {
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(new ClusterEnvelope(nodeId, events));
+        } catch (JsonProcessingException e) {
+            log.error("Failed to encode cluster events", e);
+            return;
+        }
+
+        if (payload.getBytes(StandardCharsets.UTF_8).length <= MAX_PAYLOAD_BYTES) {
+            payloads.add(payload);
+        } else if (events.size() > 1) {
+            int half = events.size() / 2;
+            encode(events.subList(0, half), payloads);
+            encode(events.subList(half, events.size()), payloads);
+        } else if (events.get(0).getMessage() != null && events.get(0).getMessage().getMessageId() != null) {
+            // Too large for NOTIFY: receivers load the stored message instead
+            encode(List.of(ClusterEvent.messageReference(events.get(0))), payloads);
+        } else {
+            log.warn("Dropping cluster event for room {}: payload exceeds {} bytes",
+                    events.get(0).getRoomId(), MAX_PAYLOAD_BYTES);
+        }
+    }
+
+    private Flux<ClusterEvent> listen() {
+        ConnectionFactory connectionFactory = ConnectionFactories.get(connectionDetails.getConnectionFactoryOptions());
+        String channel = properties.getChannel();
+
+        return Flux.usingWhen(
+                        Mono.from(connectionFactory.create()).cast(PostgresqlConnection.class),
+                        connection -> connection.createStatement("LISTEN " + channel)
+                                .execute()
+                                .flatMap(PostgresqlResult::getRowsUpdated)
+                                // Events missed while not listening may have skipped recent messages
+                                .doOnComplete(recentMessages::clear)
+                                .thenMany(connection.getNotifications()),
+                        Connection::close)
+                .concatMap(this::receive)
+                .doOnError(e -> log.warn("Cluster listener on channel {} failed: {}", channel, e.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, properties.getReconnectDelay())
+                        .maxBackoff(Duration.ofSeconds(30)))
+                .repeatWhen(completed -> completed.delayElements(properties.getReconnectDelay()))
+                .doOnNext(event -> inbound.tryEmitNext(event));
+    }
+
+    private Flux<ClusterEvent> receive(Notification notification) {
+        ClusterEnvelope envelope;
+        try {
+            envelope = objectMapper.readValue(notification.getParameter(), ClusterEnvelope.class);
+        } catch (Exception e) {
+            log.warn("Ignoring malformed cluster notification: {}", e.getMessage());
+            return Flux.empty();
+        }
+
+        if (nodeId.equals(envelope.getNode())) {
+            return Flux.empty();
+        }
+
+        return Flux.fromIterable(envelope.getEvents())
+                .concatMap(this::resolve);
+    }
+
+    private Mono<ClusterEvent> resolve(ClusterEvent event) {
+        if (ClusterEvent.ROOM_CHANGED.equals(event.getKind())) {
+            roomCache.invalidate(event.getRoomId());
+            sessionRegistry.evict(event.getRoomId());
+            assignmentEngine.remoteRoomChanged(event.getRoomId());
+            return Mono.empty();
+        }
+        if (event.getMessage() != null) {
+            if ("NEW_MESSAGE".equals(event.getMessage().getType())) {
+                ChatMessage message = event.getMessage().toChatMessage();
+                recentMessages.append(message);
+                messageFeed.publish(message);
+            }
+            return Mono.just(event);
+        }
+        return chatService.getMessage(event.getMessageId())
+                .doOnNext(message -> {
+                    recentMessages.append(message);
+                    messageFeed.publish(message);
+                })
+                .map(message -> ClusterEvent.roomMessage(event.getRoomId(), WebSocketMessage.newMessage(message)))
+                .onErrorResume(e -> {
+                    log.warn("Could not load message {} announced by another node: {}",
+                            event.getMessageId(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class ClusterEvent {
+        static final String ROOM_MESSAGE = "ROOM_MESSAGE";
+        static final String ROOM_CHANGED = "ROOM_CHANGED";
+
+        String kind;
+        Long roomId;
+        Long messageId;
+        WebSocketMessage message;
+
+        static ClusterEvent roomMessage(Long roomId, WebSocketMessage message) {
+            return new ClusterEvent(ROOM_MESSAGE, roomId, null, message);
+        }
+
+        static ClusterEvent roomChanged(Long roomId) {
+            return new ClusterEvent(ROOM_CHANGED, roomId, null, null);
+        }
+
+        static ClusterEvent messageReference(ClusterEvent event) {
+            return new ClusterEvent(ROOM_MESSAGE, event.getRoomId(), event.getMessage().getMessageId(), null);
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    static class ClusterEnvelope {
+        String node;
+        List<ClusterEvent> events;
+    }
+}
@@ -0,0 +1,158 @@
+package com.bookshop.chat_service.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Admission of inbound frames ahead of any processing. SEND_MESSAGE, TYPING
+ * and all other frames each have their own buckets, one per session and one
+ * shared by all sessions of a user, and a frame must fit both. Rejections
+ * are themselves metered by a bucket per session, and a session that
+ * exhausts it is reported as abusive.
+ * <p>
+ * A user's buckets live while the user has a session on this node: each
+ * session holds a reference and the last one to be released drops them.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class InboundRateLimiter {
+
+    static final List<String> LIMITED_TYPES = List.of("SEND_MESSAGE", "TYPING", "other");
+
+    enum Verdict {
+        ACCEPTED, REJECTED, ABUSIVE
+    }
+
+    ChatProperties.RateLimit properties;
+    Map<String, Buckets> users = new ConcurrentHashMap<>();
+    Map<String, Counter> rejections = new HashMap<>();
+    Counter abusiveSessions;
+
+    public InboundRateLimiter(ChatProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties.getRateLimit();
+        validate("send-message", this.properties.getSendMessage());
+        validate("typing", this.properties.getTyping());
+        validate("other", this.properties.getOther());
+        if (this.properties.getMaxViolations() < 1 || !this.properties.getViolationWindow().isPositive()) {
+            throw new IllegalArgumentException("chat.rate-limit needs max-violations >= 1 and a positive violation-window");
+        }
+        for (String type : LIMITED_TYPES) {
+            rejections.put(type, Counter.builder("chat.websocket.inbound.rejected")
+                    .description("Inbound frames rejected by rate limiting")
+                    .tag("type", type)
+                    .register(meterRegistry));
+        }
+        this.abusiveSessions = Counter.builder("chat.websocket.rate_limit.disconnects")
+                .register(meterRegistry);
+    }
+
+    SessionLimits session(String userId) {
+        Buckets user = users.compute(userId, (id, current) -> {
+            Buckets shared = current != null ? current : new Buckets(
+                    bucket(properties.getSendMessage().getUserRate(), properties.getSendMessage().getUserBurst()),
+                    bucket(properties.getTyping().getUserRate(), properties.getTyping().getUserBurst()),
+                    bucket(properties.getOther().getUserRate(), properties.getOther().getUserBurst()));
+            shared.sessions++;
+            return shared;
+        });
+        Buckets session = new Buckets(
+                bucket(properties.getSendMessage().getSessionRate(), properties.getSendMessage().getSessionBurst()),
+                bucket(properties.getTyping().getSessionRate(), properties.getTyping().getSessionBurst()),
+                bucket(properties.getOther().getSessionRate(), properties.getOther().getSessionBurst()));
+        double violationRate = properties.getMaxViolations() / (properties.getViolationWindow().toNanos() / 1e9);
+        return new SessionLimits(userId, session, user, bucket(violationRate, properties.getMaxViolations()));
+    }
+
+    /**
+     * Drops the session's reference to its user's buckets. Buckets created
+     * for a later session of the same user are left alone.
+     */
+    void release(SessionLimits limits) {
+        users.computeIfPresent(limits.userId,
+                (id, current) -> current != limits.user || --current.sessions > 0 ? current : null);
+    }
+
+    Verdict admit(SessionLimits limits, String type) {
+        if (!properties.isEnabled()) {
+            return Verdict.ACCEPTED;
+        }
+        String limitedType = limitedType(type);
+        long now = System.nanoTime();
+        TokenBucket session = limits.session.of(limitedType);
+        if (session.tryAcquire(now)) {
+            if (limits.user.of(limitedType).tryAcquire(now)) {
+                return Verdict.ACCEPTED;
+            }
+            // The frame is rejected, so it must not cost the session anything
+            session.release();
+        }
+        rejections.get(limitedType).increment();
+        if (limits.violations.tryAcquire(now)) {
+            return Verdict.REJECTED;
+        }
+        abusiveSessions.increment();
+        return Verdict.ABUSIVE;
+    }
+
+    private static String limitedType(String type) {
+        return "SEND_MESSAGE".equals(type) || "TYPING".equals(type) ? type : "other";
+    }
+
+    private static void validate(String type, ChatProperties.FrameLimit limit) {
+        if (!(limit.getSessionRate() > 0) || !(limit.getUserRate() > 0)
+                || limit.getSessionBurst() < 1 || limit.getUserBurst() < 1) {
+            throw new IllegalArgumentException("chat.rate-limit." + type + " needs positive rates and bursts of at least 1");
+        }
+    }
+
+    private static TokenBucket bucket(double ratePerSecond, int burst) {
+        return new TokenBucket(ratePerSecond, burst);
+    }
+
+    static final class SessionLimits {
+        final String userId;
+        final Buckets session;
+        final Buckets user;
+        final TokenBucket violations;
+
+        SessionLimits(String userId, Buckets session, Buckets user, TokenBucket violations) {
+            this.userId = userId;
+            this.session = session;
+            this.user = user;
+            this.violations = violations;
+        }
+    }
+
+    private static final class Buckets {
+        final TokenBucket sendMessage;
+        final TokenBucket typing;
+        final TokenBucket other;
+        // Sessions sharing a user's buckets, only changed inside compute calls on the users map
+        int sessions;
+
+        Buckets(TokenBucket sendMessage, TokenBucket typing, TokenBucket other) {
+            this.sendMessage = sendMessage;
+            this.typing = typing;
+            this.other = other;
+        }
+
+        TokenBucket of(String limitedType) {
+            switch (limitedType) {
+                case "SEND_MESSAGE":
+                    return sendMessage;
+                case "TYPING":
+                    return typing;
+                default:
+                    return other;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.bookshop.chat_service.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.PackagePrivate;
+import org.springframework.web.reactive.socket.WebSocketMessage.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The original JSON text protocol, used when the client asks for no
+ * subprotocol or for {@value #SUB_PROTOCOL}.
+ */
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+final class JsonWebSocketCodec implements WebSocketCodec {
+
+    @PackagePrivate
+    static final String SUB_PROTOCOL = "chat.v1.json";
+
+    ObjectMapper objectMapper;
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+
+    @Override
+    public String getSubProtocol() {
+        return SUB_PROTOCOL;
+    }
+
+    @Override
+    public Type getFrameType() {
+        return Type.TEXT;
+    }
+
+    @Override
+    public void encode(WebSocketMessage message, OutputStream out) throws IOException {
+        objectMapper.writeValue(out, message);
+    }
+
+    @Override
+    public WebSocketMessage decode(InputStream in) throws IOException {
+        return objectMapper.readValue(in, WebSocketMessage.class);
+    }
+}
@@ -0,0 +1,233 @@
+package com.bookshop.chat_service.config;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded outbound buffer feeding the single long-lived {@code session.send}
+ * pipeline of one WebSocket session. Producers from any thread call
+ * {@link #offer}; frames are handed to the transport only as fast as it
+ * requests them, and the configured {@link SlowConsumerPolicy} decides what
+ * happens once the buffer is full.
+ */
+@Slf4j
+final class OutboundQueue {
+
+    private static final byte[] PING_PAYLOAD = new byte[0];
+
+    private final WebSocketSession session;
+    private final WebSocketCodec codec;
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final ChatWebSocketMetrics metrics;
+    private final Counter sentFrames;
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean pingPending = new AtomicBoolean();
+
+    private volatile FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> sink;
+    private volatile boolean done;
+    private int highWaterMark;
+
+    OutboundQueue(WebSocketSession session, WebSocketCodec codec, ChatProperties.Outbound properties,
+                  ChatWebSocketMetrics metrics) {
+        this.session = session;
+        this.codec = codec;
+        this.capacity = properties.getQueueCapacity();
+        this.policy = properties.getOverflowPolicy();
+        this.metrics = metrics;
+        this.sentFrames = metrics.outboundFrames(codec);
+    }
+
+    Flux<org.springframework.web.reactive.socket.WebSocketMessage> frames() {
+        return Flux.create(emitter -> {
+            sink = emitter;
+            emitter.onRequest(n -> drain());
+            emitter.onDispose(this::clear);
+            drain();
+        });
+    }
+
+    void offer(BroadcastFrame frame) {
+        if (done) {
+            return;
+        }
+
+        WebSocketMessage message = frame.getMessage();
+        boolean typing = isTypingEvent(message);
+        boolean overflow = false;
+
+        synchronized (queue) {
+            // complete() may have run since the check above, and its final
+            // drain would never emit a frame queued now
+            if (done) {
+                return;
+            }
+            if (typing && policy == SlowConsumerPolicy.COALESCE && removeQueuedTypingOf(message)) {
+                metrics.typingFrameCoalesced();
+            }
+
+            if (queue.size() >= capacity) {
+                if (policy == SlowConsumerPolicy.DISCONNECT) {
+                    overflow = true;
+                } else if (typing) {
+                    metrics.typingFrameDropped();
+                    return;
+                } else if (!removeOldestTyping()) {
+                    overflow = true;
+                }
+            }
+
+            if (!overflow) {
+                queue.addLast(new Entry(message, frame.retain(codec)));
+                highWaterMark = Math.max(highWaterMark, queue.size());
+                metrics.frameQueued(queue.size());
+            }
+        }
+
+        if (overflow) {
+            disconnectSlowConsumer();
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * Sends a ping ahead of the queued frames. It is neither counted against
+     * the capacity nor repeated while one is still waiting for demand.
+     */
+    void ping() {
+        if (!done && pingPending.compareAndSet(false, true)) {
+            drain();
+        }
+    }
+
+    /**
+     * Stops accepting frames and completes the outbound pipeline once the
+     * frames that are already queued have been written.
+     */
+    void complete() {
+        done = true;
+        drain();
+    }
+
+    int getDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    int getHighWaterMark() {
+        synchronized (queue) {
+            return highWaterMark;
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> emitter = sink;
+            if (emitter != null) {
+                if (emitter.requestedFromDownstream() > 0 && pingPending.compareAndSet(true, false)) {
+                    emitter.next(session.pingMessage(this::pingPayload));
+                }
+                while (emitter.requestedFromDownstream() > 0) {
+                    Entry entry;
+                    synchronized (queue) {
+                        entry = queue.pollFirst();
+                    }
+                    if (entry == null) {
+                        break;
+                    }
+                    metrics.framesDequeued(1);
+                    sentFrames.increment();
+                    emitter.next(entry.frame());
+                }
+                if (done && getDepth() == 0) {
+                    emitter.complete();
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private DataBuffer pingPayload(DataBufferFactory factory) {
+        return factory.wrap(PING_PAYLOAD);
+    }
+
+    private void disconnectSlowConsumer() {
+        log.warn("Disconnecting slow consumer session {}: outbound queue full ({} frames, policy {})",
+                session.getId(), capacity, policy);
+        metrics.slowConsumerDisconnected();
+        done = true;
+        clear();
+        session.close(CloseStatus.SERVICE_OVERLOAD.withReason("Outbound queue overflow"))
+                .subscribe();
+    }
+
+    private void clear() {
+        int released = 0;
+        synchronized (queue) {
+            Entry entry;
+            while ((entry = queue.pollFirst()) != null) {
+                entry.frame().release();
+                released++;
+            }
+        }
+        metrics.framesDequeued(released);
+    }
+
+    private boolean removeQueuedTypingOf(WebSocketMessage message) {
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (isTypingEvent(entry.message())
+                    && Objects.equals(entry.message().getRoomId(), message.getRoomId())
+                    && Objects.equals(entry.message().getTypingUserId(), message.getTypingUserId())) {
+                it.remove();
+                entry.frame().release();
+                metrics.framesDequeued(1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeOldestTyping() {
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (isTypingEvent(entry.message())) {
+                it.remove();
+                entry.frame().release();
+                metrics.framesDequeued(1);
+                metrics.typingFrameDropped();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTypingEvent(WebSocketMessage message) {
+        return "USER_TYPING".equals(message.getType()) || "USER_STOPPED_TYPING".equals(message.getType());
+    }
+
+    private record Entry(WebSocketMessage message,
+                         org.springframework.web.reactive.socket.WebSocketMessage frame) {
+    }
+}
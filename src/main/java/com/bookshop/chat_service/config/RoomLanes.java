@@ -0,0 +1,107 @@
+package com.bookshop.chat_service.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Serial lanes for inbound work, one per active room. Work submitted for the
+ * same room runs one at a time in submission order, work for different rooms
+ * runs in parallel. A lane exists only while it has pending work: the last
+ * task to finish removes it, and the next submission starts a fresh one.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class RoomLanes {
+
+    static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+
+    Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+
+    public RoomLanes(MeterRegistry meterRegistry) {
+        Gauge.builder("chat.websocket.room.lanes", lanes, Map::size)
+                .description("Rooms with inbound work pending on this node")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the work after all work submitted earlier for the room completed.
+     * Errors of the work are passed to the returned Mono only, never to the
+     * lane. Work whose Mono was cancelled before its turn is skipped.
+     */
+    Mono<Void> submit(Long roomId, Supplier<Mono<Void>> work) {
+        return Mono.create(sink -> {
+            Task task = new Task(work, sink);
+            sink.onCancel(() -> task.cancelled = true);
+
+            // Counted under the map lock, so the lane cannot complete before the task ran
+            Lane lane = lanes.compute(roomId, (id, current) -> {
+                Lane active = current != null ? current : start(id);
+                active.pending++;
+                return active;
+            });
+            lane.tasks.emitNext(task, Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+        });
+    }
+
+    int activeLanes() {
+        return lanes.size();
+    }
+
+    private Lane start(Long roomId) {
+        Lane lane = new Lane();
+        lane.tasks.asFlux()
+                .concatMap(task -> run(task).doFinally(signal -> finished(roomId, lane)), 0)
+                .subscribe();
+        return lane;
+    }
+
+    private Mono<Void> run(Task task) {
+        if (task.cancelled) {
+            return Mono.empty();
+        }
+        return Mono.defer(task.work)
+                .doOnSuccess(v -> task.sink.success())
+                .onErrorResume(e -> {
+                    task.sink.error(e);
+                    return Mono.empty();
+                });
+    }
+
+    private void finished(Long roomId, Lane lane) {
+        lanes.computeIfPresent(roomId, (id, current) -> {
+            if (current != lane || --current.pending > 0) {
+                return current;
+            }
+            lane.tasks.tryEmitComplete();
+            return null;
+        });
+    }
+
+    private static final class Lane {
+        final Sinks.Many<Task> tasks = Sinks.many().unicast().onBackpressureBuffer();
+        // Only changed inside compute calls on the lanes map
+        int pending;
+    }
+
+    private static final class Task {
+        final Supplier<Mono<Void>> work;
+        final MonoSink<Void> sink;
+        volatile boolean cancelled;
+
+        Task(Supplier<Mono<Void>> work, MonoSink<Void> sink) {
+            this.work = work;
+            this.sink = sink;
+        }
+    }
+}
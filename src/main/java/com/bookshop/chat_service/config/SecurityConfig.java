@@ -0,0 +1,77 @@
+package com.bookshop.chat_service.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtAuthenticationConverterAdapter;
+import org.springframework.security.oauth2.server.resource.web.server.authentication.ServerBearerTokenAuthenticationConverter;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
+import org.springframework.security.web.server.savedrequest.NoOpServerRequestCache;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+
+import java.security.Principal;
+
+/**
+ * Bearer tokens issued by the bookshop's Keycloak realm are verified when a
+ * request carries one, and their {@code roles} claim becomes the caller's
+ * authorities. Requests without a token are still let through as before;
+ * only decisions that need a trusted identity, like making a WebSocket
+ * session available for room assignment, look at the authentication.
+ * <p>
+ * Browsers cannot set headers on a WebSocket handshake, so the chat
+ * endpoint also takes the token from an {@code access_token} query
+ * parameter.
+ */
+@Configuration
+@EnableWebFluxSecurity
+public class SecurityConfig {
+
+    static final String EMPLOYEE_AUTHORITY = "ROLE_employee";
+
+    @Bean
+    SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+        JwtGrantedAuthoritiesConverter roles = new JwtGrantedAuthoritiesConverter();
+        roles.setAuthoritiesClaimName("roles");
+        roles.setAuthorityPrefix("ROLE_");
+        JwtAuthenticationConverter authentication = new JwtAuthenticationConverter();
+        authentication.setJwtGrantedAuthoritiesConverter(roles);
+
+        return http
+                .authorizeExchange(exchange -> exchange.anyExchange().permitAll())
+                .oauth2ResourceServer(server -> server
+                        .bearerTokenConverter(bearerTokenConverter())
+                        .jwt(jwt -> jwt
+                                .jwtAuthenticationConverter(new ReactiveJwtAuthenticationConverterAdapter(authentication))))
+                .requestCache(cache -> cache.requestCache(NoOpServerRequestCache.getInstance()))
+                .csrf(ServerHttpSecurity.CsrfSpec::disable)
+                .build();
+    }
+
+    static ServerAuthenticationConverter bearerTokenConverter() {
+        ServerBearerTokenAuthenticationConverter header = new ServerBearerTokenAuthenticationConverter();
+        ServerBearerTokenAuthenticationConverter queryParameter = new ServerBearerTokenAuthenticationConverter();
+        queryParameter.setAllowUriQueryParameter(true);
+        ServerWebExchangeMatcher chat = ServerWebExchangeMatchers.pathMatchers(WebSocketConfig.CHAT_PATH);
+        return exchange -> chat.matches(exchange)
+                .flatMap(match -> match.isMatch() ? queryParameter.convert(exchange) : header.convert(exchange));
+    }
+
+    /** Whether the principal comes from a bearer token that was verified. */
+    static boolean isVerified(Principal principal) {
+        return principal instanceof JwtAuthenticationToken authentication
+                && authentication.isAuthenticated();
+    }
+
+    static boolean isEmployee(Principal principal) {
+        return isVerified(principal)
+                && ((Authentication) principal).getAuthorities().stream()
+                        .anyMatch(authority -> EMPLOYEE_AUTHORITY.equals(authority.getAuthority()));
+    }
+}
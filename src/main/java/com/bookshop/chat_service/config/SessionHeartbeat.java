@@ -0,0 +1,103 @@
+package com.bookshop.chat_service.config;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.PackagePrivate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-driven heartbeats on the shared timer wheel. Every inbound frame,
+ * pongs included, marks its session as seen. A session that has been silent
+ * for the ping interval is pinged, and one that stays silent for the idle
+ * timeout is closed, which also ends half-open connections that never report
+ * a close. Each session has at most one pending timeout, which is pushed back
+ * lazily when it fires rather than being rescheduled on every frame.
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SessionHeartbeat {
+
+    @PackagePrivate
+    static final CloseStatus IDLE_TIMEOUT = CloseStatus.GOING_AWAY.withReason("Idle timeout");
+
+    Timer timer;
+    ChatWebSocketMetrics metrics;
+    long pingIntervalNanos;
+    long idleTimeoutNanos;
+
+    public SessionHeartbeat(WebSocketProperties properties, Timer chatTimer, ChatWebSocketMetrics metrics) {
+        this.timer = chatTimer;
+        this.metrics = metrics;
+        this.pingIntervalNanos = properties.getPingInterval().toNanos();
+        this.idleTimeoutNanos = properties.getMaxSessionIdleTimeout().toNanos();
+    }
+
+    Watch watch(ChatSession session) {
+        Watch watch = new Watch(session);
+        schedule(watch, Math.min(pingIntervalNanos, idleTimeoutNanos));
+        return watch;
+    }
+
+    private void schedule(Watch watch, long delayNanos) {
+        if (!watch.cancelled) {
+            watch.timeout = timer.newTimeout(timeout -> check(watch), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void check(Watch watch) {
+        if (watch.cancelled || !watch.session.isOpen()) {
+            return;
+        }
+        long idle = System.nanoTime() - watch.lastSeen;
+        if (idle >= idleTimeoutNanos) {
+            reap(watch, idle);
+            return;
+        }
+        if (idle >= pingIntervalNanos) {
+            watch.session.ping();
+            schedule(watch, Math.min(pingIntervalNanos, idleTimeoutNanos - idle));
+        } else {
+            schedule(watch, Math.min(pingIntervalNanos - idle, idleTimeoutNanos - idle));
+        }
+    }
+
+    private void reap(Watch watch, long idleNanos) {
+        ChatSession session = watch.session;
+        log.info("Closing WebSocket session {} of user {}: idle for {} ms",
+                session.getSession().getId(), session.getUserId(), TimeUnit.NANOSECONDS.toMillis(idleNanos));
+        metrics.sessionReaped();
+        session.getSession().close(IDLE_TIMEOUT)
+                .subscribe(null, e -> log.debug("Error closing idle session {}: {}",
+                        session.getSession().getId(), e.getMessage()));
+    }
+
+    static final class Watch {
+        final ChatSession session;
+        volatile long lastSeen = System.nanoTime();
+        volatile boolean cancelled;
+        volatile Timeout timeout;
+
+        Watch(ChatSession session) {
+            this.session = session;
+        }
+
+        void seen() {
+            lastSeen = System.nanoTime();
+        }
+
+        void cancel() {
+            cancelled = true;
+            Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.chat.domain.ChatRoomSnapshot;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Open WebSocket sessions of this node, by user and by room. A user may hold
+ * any number of sessions, one per tab or device. A room entry holds the local
+ * sessions of the room's participants, so a broadcast reads a single set
+ * instead of resolving participants for every message.
+ * <p>
+ * A room is indexed when a session joins it, on its first broadcast, and is
+ * kept current on assignment. It is dropped when it closes, when another
+ * node changes it, or when its last local session disconnects. An absent
+ * entry only means the next broadcast rebuilds it from the room snapshot.
+ * All state lives in ConcurrentHashMaps, which lock per bin, so updates for
+ * different users and rooms do not contend and lookups never lock. Each room
+ * entry is created, rewritten and dropped only inside a compute on its key.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SessionRegistry {
+
+    Map<String, Set<ChatSession>> sessionsByUser = new ConcurrentHashMap<>();
+    Map<String, Set<Long>> roomsByUser = new ConcurrentHashMap<>();
+    Map<Long, RoomSessions> rooms = new ConcurrentHashMap<>();
+
+    public SessionRegistry(MeterRegistry meterRegistry) {
+        Gauge.builder("chat.websocket.users", sessionsByUser, Map::size)
+                .description("Users with at least one open WebSocket session on this node")
+                .register(meterRegistry);
+        Gauge.builder("chat.websocket.rooms", rooms, Map::size)
+                .description("Rooms with indexed local sessions on this node")
+                .register(meterRegistry);
+    }
+
+    // The session is published before the user's rooms are read, and index()
+    // links a room before it reads sessions, so one of the two always adds it
+    void register(ChatSession session) {
+        String userId = session.getUserId();
+        sessionsByUser.compute(userId, (id, sessions) -> {
+            Set<ChatSession> userSessions = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            userSessions.add(session);
+            return userSessions;
+        });
+        for (Long roomId : roomsOf(userId)) {
+            RoomSessions room = rooms.get(roomId);
+            if (room != null) {
+                room.sessions.add(session);
+            }
+        }
+    }
+
+    /**
+     * @return whether this was the user's last session on this node
+     */
+    boolean unregister(ChatSession session) {
+        String userId = session.getUserId();
+        boolean last = sessionsByUser.computeIfPresent(userId, (id, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        }) == null;
+        for (Long roomId : roomsOf(userId)) {
+            rooms.computeIfPresent(roomId, (id, room) -> {
+                room.sessions.remove(session);
+                if (room.sessions.isEmpty()) {
+                    unlink(id, room);
+                    return null;
+                }
+                return room;
+            });
+        }
+        return last;
+    }
+
+    /**
+     * The open local sessions of an indexed room, or {@code null} if the room
+     * is not indexed. Closed sessions found on the way are removed, and the
+     * room is dropped once none are left: index() can copy a session that is
+     * unregistering before the room is linked to its user, and then
+     * unregister() never sees the room.
+     */
+    List<ChatSession> roomSessions(Long roomId) {
+        RoomSessions room = rooms.get(roomId);
+        if (room == null) {
+            return null;
+        }
+        List<ChatSession> open = open(room.sessions);
+        if (open.isEmpty()) {
+            rooms.computeIfPresent(roomId, (id, current) -> {
+                if (current != room || !current.sessions.isEmpty()) {
+                    return current;
+                }
+                unlink(id, current);
+                return null;
+            });
+        }
+        return open;
+    }
+
+    /**
+     * Indexes the room's participants and returns their open local sessions.
+     * Closed rooms and rooms without local sessions are not kept.
+     */
+    List<ChatSession> index(ChatRoomSnapshot snapshot) {
+        RoomSessions[] indexed = new RoomSessions[1];
+        rooms.compute(snapshot.getId(), (id, current) -> {
+            if (current != null) {
+                unlink(id, current);
+            }
+            RoomSessions room = new RoomSessions(snapshot.getCustomerId(), snapshot.getEmployeeId());
+            link(id, room.customerId);
+            link(id, room.employeeId);
+            addSessionsOf(room, room.customerId);
+            addSessionsOf(room, room.employeeId);
+            indexed[0] = room;
+
+            if (snapshot.isClosed() || room.sessions.isEmpty()) {
+                unlink(id, room);
+                return null;
+            }
+            return room;
+        });
+        return open(indexed[0].sessions);
+    }
+
+    /**
+     * Follows a room change made on this node. Rooms that are not indexed
+     * stay that way until they are next needed.
+     */
+    void roomChanged(ChatRoomSnapshot snapshot) {
+        if (snapshot.isClosed()) {
+            evict(snapshot.getId());
+        } else if (rooms.containsKey(snapshot.getId())) {
+            index(snapshot);
+        }
+    }
+
+    void evict(Long roomId) {
+        rooms.computeIfPresent(roomId, (id, room) -> {
+            unlink(id, room);
+            return null;
+        });
+    }
+
+    private List<Long> roomsOf(String userId) {
+        Set<Long> userRooms = roomsByUser.get(userId);
+        return userRooms != null ? List.copyOf(userRooms) : List.of();
+    }
+
+    private void link(Long roomId, String userId) {
+        if (userId != null) {
+            roomsByUser.compute(userId, (id, userRooms) -> {
+                Set<Long> linked = userRooms != null ? userRooms : ConcurrentHashMap.newKeySet();
+                linked.add(roomId);
+                return linked;
+            });
+        }
+    }
+
+    private void unlink(Long roomId, RoomSessions room) {
+        for (String userId : new String[]{room.customerId, room.employeeId}) {
+            if (userId != null) {
+                roomsByUser.computeIfPresent(userId, (id, userRooms) -> {
+                    userRooms.remove(roomId);
+                    return userRooms.isEmpty() ? null : userRooms;
+                });
+            }
+        }
+    }
+
+    private void addSessionsOf(RoomSessions room, String userId) {
+        Set<ChatSession> sessions = userId != null ? sessionsByUser.get(userId) : null;
+        if (sessions != null) {
+            room.sessions.addAll(sessions);
+        }
+    }
+
+    private static List<ChatSession> open(Set<ChatSession> sessions) {
+        List<ChatSession> open = new ArrayList<>(sessions.size());
+        for (ChatSession session : sessions) {
+            if (session.isOpen()) {
+                open.add(session);
+            } else {
+                sessions.remove(session);
+            }
+        }
+        return open;
+    }
+
+    private static final class RoomSessions {
+        final String customerId;
+        final String employeeId;
+        final Set<ChatSession> sessions = ConcurrentHashMap.newKeySet();
+
+        RoomSessions(String customerId, String employeeId) {
+            this.customerId = customerId;
+            this.employeeId = employeeId;
+        }
+    }
+}
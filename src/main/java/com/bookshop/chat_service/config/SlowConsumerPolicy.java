@@ -0,0 +1,5 @@
+package com.bookshop.chat_service.config;
+
+public enum SlowConsumerPolicy {
+    DROP_TYPING, COALESCE, DISCONNECT
+}
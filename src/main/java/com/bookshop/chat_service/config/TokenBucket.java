@@ -0,0 +1,44 @@
+package com.bookshop.chat_service.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single theoretical arrival time (GCRA). A frame is
+ * admitted while the arrival time is at most the burst tolerance ahead of
+ * now, and admitting it pushes the arrival time one emission interval on.
+ * The whole state is one AtomicLong updated by compare-and-set, so checks
+ * from any number of threads never lock.
+ */
+final class TokenBucket {
+
+    private final long emissionIntervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong arrival;
+
+    TokenBucket(double ratePerSecond, int burst) {
+        this.emissionIntervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        this.toleranceNanos = emissionIntervalNanos * Math.max(burst - 1, 0);
+        this.arrival = new AtomicLong(System.nanoTime());
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, nowNanos);
+            if (next - nowNanos > toleranceNanos) {
+                return false;
+            }
+            if (arrival.compareAndSet(current, next + emissionIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire} for a frame that was
+     * not admitted after all.
+     */
+    void release() {
+        arrival.addAndGet(-emissionIntervalNanos);
+    }
+}
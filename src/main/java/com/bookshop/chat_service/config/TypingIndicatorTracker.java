@@ -0,0 +1,173 @@
+package com.bookshop.chat_service.config;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import lombok.AccessLevel;
+import lombok.Value;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typing state per (room, user). Repeated TYPING frames are rebroadcast at
+ * most once per rebroadcast interval, and an indicator that is not refreshed
+ * within the expiry is cleared by the shared timer wheel. Each indicator has
+ * at most one pending timeout, which is pushed back lazily when it fires
+ * rather than being rescheduled on every keystroke.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class TypingIndicatorTracker {
+
+    static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+
+    Timer timer;
+    long rebroadcastIntervalNanos;
+    long expiryNanos;
+
+    Map<TypingKey, TypingState> states = new ConcurrentHashMap<>();
+    Map<String, Set<Long>> roomsByUser = new ConcurrentHashMap<>();
+    Map<Long, Set<String>> usersByRoom = new ConcurrentHashMap<>();
+    Sinks.Many<TypingKey> expirations = Sinks.many().multicast().directBestEffort();
+
+    public TypingIndicatorTracker(ChatProperties properties, Timer chatTimer) {
+        this.timer = chatTimer;
+        this.rebroadcastIntervalNanos = properties.getTyping().getRebroadcastInterval().toNanos();
+        this.expiryNanos = properties.getTyping().getExpiry().toNanos();
+    }
+
+    /**
+     * Records a TYPING frame and tells whether it should be broadcast.
+     */
+    public boolean typing(Long roomId, String userId) {
+        long now = System.nanoTime();
+        TypingKey key = new TypingKey(roomId, userId);
+        TypingState state = states.get(key);
+
+        if (state == null) {
+            TypingState created = new TypingState(now);
+            state = states.putIfAbsent(key, created);
+            if (state == null) {
+                index(key);
+                schedule(key, created, expiryNanos);
+                return true;
+            }
+        }
+
+        synchronized (state) {
+            state.lastSeen = now;
+            if (now - state.lastBroadcast >= rebroadcastIntervalNanos) {
+                state.lastBroadcast = now;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Clears the indicator and tells whether the user was typing.
+     */
+    public boolean stopped(Long roomId, String userId) {
+        TypingKey key = new TypingKey(roomId, userId);
+        TypingState state = states.remove(key);
+        if (state == null) {
+            return false;
+        }
+        release(key, state);
+        return true;
+    }
+
+    /**
+     * Clears every indicator of a user and returns the rooms it was shown in.
+     */
+    public List<Long> removeUser(String userId) {
+        Set<Long> rooms = roomsByUser.remove(userId);
+        if (rooms == null) {
+            return List.of();
+        }
+        return rooms.stream()
+                .filter(roomId -> stopped(roomId, userId))
+                .toList();
+    }
+
+    public Set<String> getTypingUsers(Long roomId) {
+        Set<String> users = usersByRoom.get(roomId);
+        return users != null ? Collections.unmodifiableSet(users) : Collections.emptySet();
+    }
+
+    /**
+     * Indicators that expired without a STOP_TYPING frame.
+     */
+    public Flux<TypingKey> expirations() {
+        return expirations.asFlux();
+    }
+
+    private void schedule(TypingKey key, TypingState state, long delayNanos) {
+        state.timeout = timer.newTimeout(timeout -> expire(key, state), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void expire(TypingKey key, TypingState state) {
+        long idle;
+        synchronized (state) {
+            idle = System.nanoTime() - state.lastSeen;
+        }
+        if (idle < expiryNanos) {
+            schedule(key, state, expiryNanos - idle);
+            return;
+        }
+        if (states.remove(key, state)) {
+            unindex(key);
+            expirations.emitNext(key, Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+        }
+    }
+
+    private void release(TypingKey key, TypingState state) {
+        Timeout timeout = state.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        unindex(key);
+    }
+
+    private void index(TypingKey key) {
+        roomsByUser.computeIfAbsent(key.getUserId(), id -> ConcurrentHashMap.newKeySet()).add(key.getRoomId());
+        usersByRoom.computeIfAbsent(key.getRoomId(), id -> ConcurrentHashMap.newKeySet()).add(key.getUserId());
+    }
+
+    private void unindex(TypingKey key) {
+        roomsByUser.computeIfPresent(key.getUserId(), (id, rooms) -> {
+            rooms.remove(key.getRoomId());
+            return rooms.isEmpty() ? null : rooms;
+        });
+        usersByRoom.computeIfPresent(key.getRoomId(), (id, users) -> {
+            users.remove(key.getUserId());
+            return users.isEmpty() ? null : users;
+        });
+    }
+
+    @Value
+    public static class TypingKey {
+        Long roomId;
+        String userId;
+    }
+
+    private static final class TypingState {
+        long lastBroadcast;
+        long lastSeen;
+        volatile Timeout timeout;
+
+        TypingState(long now) {
+            this.lastBroadcast = now;
+            this.lastSeen = now;
+        }
+    }
+}
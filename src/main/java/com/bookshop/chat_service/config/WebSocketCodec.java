@@ -0,0 +1,27 @@
+package com.bookshop.chat_service.config;
+
+import org.springframework.web.reactive.socket.WebSocketMessage.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Wire encoding of {@link WebSocketMessage} for one negotiated
+ * {@code Sec-WebSocket-Protocol}.
+ */
+interface WebSocketCodec {
+
+    /**
+     * Short name used in metric tags.
+     */
+    String getName();
+
+    String getSubProtocol();
+
+    Type getFrameType();
+
+    void encode(WebSocketMessage message, OutputStream out) throws IOException;
+
+    WebSocketMessage decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,44 @@
+package com.bookshop.chat_service.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketMessage.Type;
+
+import java.util.List;
+
+/**
+ * The subprotocols the chat endpoint speaks. Clients that do not request one
+ * get JSON text frames, as before subprotocols were introduced.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class WebSocketCodecs {
+
+    WebSocketCodec json;
+    WebSocketCodec binary;
+    List<String> subProtocols;
+
+    public WebSocketCodecs(ObjectMapper objectMapper) {
+        this.json = new JsonWebSocketCodec(objectMapper);
+        this.binary = new BinaryWebSocketCodec();
+        this.subProtocols = List.of(binary.getSubProtocol(), json.getSubProtocol());
+    }
+
+    List<String> getSubProtocols() {
+        return subProtocols;
+    }
+
+    WebSocketCodec negotiated(String subProtocol) {
+        return binary.getSubProtocol().equals(subProtocol) ? binary : json;
+    }
+
+    /**
+     * Inbound frames are decoded by their frame type, so a client may mix
+     * text and binary frames regardless of the negotiated subprotocol.
+     */
+    WebSocketCodec forFrame(Type type) {
+        return type == Type.BINARY ? binary : json;
+    }
+}
@@ -1,5 +1,8 @@
 package com.bookshop.chat_service.config;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -10,18 +13,22 @@ import org.springframework.web.reactive.socket.server.WebSocketService;
 import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
 import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAdapter;
 import org.springframework.web.reactive.socket.server.upgrade.ReactorNettyRequestUpgradeStrategy;
+import reactor.netty.http.server.WebsocketServerSpec;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Configuration
 public class WebSocketConfig {
 
+    static final String CHAT_PATH = "/ws/chats";
+
     @Bean
     public HandlerMapping webSocketHandlerMapping(ChatWebSocketHandler handler) {
         Map<String, WebSocketHandler> map = new HashMap<>();
-        map.put("/ws/chats", handler);
+        map.put(CHAT_PATH, handler);
 
         SimpleUrlHandlerMapping mapping = new SimpleUrlHandlerMapping();
         mapping.setUrlMap(map);
@@ -30,12 +37,25 @@ public class WebSocketConfig {
     }
 
     @Bean
-    public WebSocketHandlerAdapter handlerAdapter() {
-        return new WebSocketHandlerAdapter();
+    public WebSocketHandlerAdapter handlerAdapter(WebSocketService webSocketService) {
+        return new WebSocketHandlerAdapter(webSocketService);
+    }
+
+    @Bean(destroyMethod = "stop")
+    public Timer chatTimer() {
+        return new HashedWheelTimer(new DefaultThreadFactory("chat-timer", true),
+                100, TimeUnit.MILLISECONDS, 512);
     }
 
+    // Netty closes with 1009 on frames above the larger limit before they are
+    // aggregated, the handler then applies the limit of the frame's type
     @Bean
-    public WebSocketService webSocketService() {
-        return new HandshakeWebSocketService(new ReactorNettyRequestUpgradeStrategy());
+    public WebSocketService webSocketService(WebSocketProperties properties) {
+        int maxFramePayloadLength = Math.max(properties.getMaxTextMessageBufferSize(),
+                properties.getMaxBinaryMessageBufferSize());
+        return new HandshakeWebSocketService(new ReactorNettyRequestUpgradeStrategy(
+                () -> WebsocketServerSpec.builder()
+                        .compress(properties.isCompression())
+                        .maxFramePayloadLength(maxFramePayloadLength)));
     }
 }
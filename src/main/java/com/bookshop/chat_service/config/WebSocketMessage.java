@@ -1,5 +1,7 @@
 package com.bookshop.chat_service.config;
 
+import com.bookshop.chat_service.chat.domain.ChatMessage;
+import com.bookshop.chat_service.chat.domain.MessageType;
 import com.bookshop.chat_service.chat.domain.SenderType;
 import lombok.Data;
 
@@ -9,10 +11,40 @@ import java.time.Instant;
 public class WebSocketMessage {
     private String type;
     private Long roomId;
+    private Long messageId;
     private String senderId;
     private SenderType senderType;
+    private MessageType messageType;
     private String content;
     private Instant timestamp;
     private Boolean isTyping;
     private String typingUserId;
+    private Long seq;
+
+    public static WebSocketMessage newMessage(ChatMessage message) {
+        WebSocketMessage wsMessage = new WebSocketMessage();
+        wsMessage.setType("NEW_MESSAGE");
+        wsMessage.setRoomId(message.getRoomId());
+        wsMessage.setMessageId(message.getId());
+        wsMessage.setContent(message.getContent());
+        wsMessage.setSenderId(message.getSenderId());
+        wsMessage.setSenderType(message.getSenderType());
+        wsMessage.setMessageType(message.getMessageType());
+        wsMessage.setTimestamp(message.getTimestamp());
+        wsMessage.setSeq(message.getSeq());
+        return wsMessage;
+    }
+
+    public ChatMessage toChatMessage() {
+        return ChatMessage.builder()
+                .id(messageId)
+                .roomId(roomId)
+                .senderId(senderId)
+                .senderType(senderType)
+                .content(content)
+                .messageType(messageType)
+                .timestamp(timestamp)
+                .seq(seq)
+                .build();
+    }
 }
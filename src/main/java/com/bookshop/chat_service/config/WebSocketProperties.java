@@ -0,0 +1,19 @@
+package com.bookshop.chat_service.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@ConfigurationProperties(prefix = "websocket")
+public class WebSocketProperties {
+    Duration maxSessionIdleTimeout = Duration.ofSeconds(90);
+    Duration pingInterval = Duration.ofSeconds(30);
+    int maxTextMessageBufferSize = 8192;
+    int maxBinaryMessageBufferSize = 8192;
+    boolean compression = false;
+}
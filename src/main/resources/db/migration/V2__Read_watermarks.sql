@@ -0,0 +1,9 @@
+CREATE TABLE chat_read_watermark (
+    room_id BIGINT NOT NULL REFERENCES chat_room(id),
+    reader_id VARCHAR(255) NOT NULL,
+    last_read_message_id BIGINT NOT NULL DEFAULT 0,
+    last_modified_date TIMESTAMP,
+    PRIMARY KEY (room_id, reader_id)
+);
+
+CREATE INDEX idx_chat_message_room_id_id ON chat_message (room_id, id);
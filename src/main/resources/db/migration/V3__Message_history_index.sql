@@ -0,0 +1 @@
+CREATE INDEX idx_chat_message_room_timestamp_id ON chat_message (room_id, timestamp, id);
@@ -0,0 +1,27 @@
+ALTER TABLE chat_room ADD COLUMN last_seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE chat_message ADD COLUMN seq BIGINT;
+
+WITH numbered AS (
+    SELECT id, ROW_NUMBER() OVER (PARTITION BY room_id ORDER BY timestamp, id) AS seq
+    FROM chat_message
+)
+UPDATE chat_message m SET seq = numbered.seq FROM numbered WHERE m.id = numbered.id;
+
+UPDATE chat_room r
+SET last_seq = COALESCE((SELECT MAX(seq) FROM chat_message m WHERE m.room_id = r.id), 0);
+
+ALTER TABLE chat_message ALTER COLUMN seq SET NOT NULL;
+CREATE UNIQUE INDEX idx_chat_message_room_seq ON chat_message (room_id, seq);
+
+-- The row lock taken on chat_room orders concurrent inserts into the same
+-- room, so sequence numbers become visible without gaps and in order
+CREATE FUNCTION assign_chat_message_seq() RETURNS trigger AS $$
+BEGIN
+    UPDATE chat_room SET last_seq = last_seq + 1 WHERE id = NEW.room_id RETURNING last_seq INTO NEW.seq;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER chat_message_assign_seq
+    BEFORE INSERT ON chat_message
+    FOR EACH ROW EXECUTE FUNCTION assign_chat_message_seq();
@@ -0,0 +1,74 @@
+-- Monthly range partitions keyed on timestamp. Primary and unique keys of a
+-- partitioned table must contain the partition key, so the primary key becomes
+-- (id, timestamp); ids still come from the same sequence and stay unique, and
+-- per-room seq stays unique through the trigger that assigns it
+ALTER TABLE chat_message RENAME TO chat_message_unpartitioned;
+ALTER SEQUENCE chat_message_id_seq OWNED BY NONE;
+
+CREATE TABLE chat_message (
+    id BIGINT NOT NULL DEFAULT nextval('chat_message_id_seq'),
+    room_id BIGINT REFERENCES chat_room(id),
+    sender_id VARCHAR(255) NOT NULL,
+    sender_type VARCHAR(50) NOT NULL,
+    content TEXT NOT NULL,
+    message_type VARCHAR(50) DEFAULT 'TEXT',
+    timestamp TIMESTAMP NOT NULL DEFAULT NOW(),
+    read BOOLEAN DEFAULT FALSE,
+    seq BIGINT NOT NULL
+) PARTITION BY RANGE (timestamp);
+
+-- Creates the partitions from the month of from_date through months_ahead
+-- months past the current one. Concurrent callers skip instead of racing
+CREATE FUNCTION create_chat_message_partitions(months_ahead INT, from_date TIMESTAMP DEFAULT LOCALTIMESTAMP)
+RETURNS INT AS $$
+DECLARE
+    partition_start TIMESTAMP := date_trunc('month', LEAST(from_date, LOCALTIMESTAMP));
+    last_month TIMESTAMP := date_trunc('month', LOCALTIMESTAMP) + make_interval(months => months_ahead);
+    created INT := 0;
+BEGIN
+    IF NOT pg_try_advisory_xact_lock(hashtext('create_chat_message_partitions')) THEN
+        RETURN 0;
+    END IF;
+    WHILE partition_start <= last_month LOOP
+        IF to_regclass('chat_message_' || to_char(partition_start, 'YYYY_MM')) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I PARTITION OF chat_message FOR VALUES FROM (%L) TO (%L)',
+                           'chat_message_' || to_char(partition_start, 'YYYY_MM'),
+                           partition_start, partition_start + INTERVAL '1 month');
+            created := created + 1;
+        END IF;
+        partition_start := partition_start + INTERVAL '1 month';
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_chat_message_partitions(3, COALESCE((SELECT MIN(timestamp) FROM chat_message_unpartitioned), LOCALTIMESTAMP));
+
+INSERT INTO chat_message (id, room_id, sender_id, sender_type, content, message_type, timestamp, read, seq)
+SELECT id, room_id, sender_id, sender_type, content, message_type, COALESCE(timestamp, LOCALTIMESTAMP), read, seq
+FROM chat_message_unpartitioned;
+
+DROP TABLE chat_message_unpartitioned;
+ALTER SEQUENCE chat_message_id_seq OWNED BY chat_message.id;
+
+ALTER TABLE chat_message ADD PRIMARY KEY (id, timestamp);
+CREATE INDEX idx_chat_message_room_id_id ON chat_message (room_id, id);
+CREATE INDEX idx_chat_message_room_timestamp_id ON chat_message (room_id, timestamp, id);
+CREATE INDEX idx_chat_message_room_seq ON chat_message (room_id, seq);
+
+CREATE TRIGGER chat_message_assign_seq
+    BEFORE INSERT ON chat_message
+    FOR EACH ROW EXECUTE FUNCTION assign_chat_message_seq();
+
+-- Messages of long-closed rooms, one row per room. The JSONB array is stored
+-- compressed out of line by TOAST and stays queryable with jsonb_array_elements
+CREATE TABLE chat_message_archive (
+    room_id BIGINT PRIMARY KEY REFERENCES chat_room(id),
+    message_count INT NOT NULL,
+    first_timestamp TIMESTAMP NOT NULL,
+    last_timestamp TIMESTAMP NOT NULL,
+    archived_date TIMESTAMP NOT NULL,
+    messages JSONB NOT NULL
+);
+
+CREATE INDEX idx_chat_room_closed ON chat_room (last_modified_date) WHERE status = 'CLOSED';
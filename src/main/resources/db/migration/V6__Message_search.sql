@@ -0,0 +1,11 @@
+-- The 'simple' configuration lowercases words without stemming, so it works
+-- for whatever language customers write in. Being a stored generated column,
+-- the vector is computed once on insert and read back by ranking
+ALTER TABLE chat_message ADD COLUMN content_tsv TSVECTOR
+    GENERATED ALWAYS AS (to_tsvector('simple', content)) STORED;
+
+-- fastupdate is on by default and queues new entries in a pending list that
+-- every search has to scan, and that is merged in one go by whichever insert
+-- fills it. Turning it off makes each insert update the index itself, which
+-- costs a little on every insert instead of a stall on an unlucky one
+CREATE INDEX idx_chat_message_content_tsv ON chat_message USING GIN (content_tsv) WITH (fastupdate = off);
@@ -0,0 +1,4 @@
+-- Serve the room lists of a participant and their inbox pages, newest
+-- activity first, without a sort
+CREATE INDEX idx_chat_room_customer_activity ON chat_room (customer_id, last_modified_date DESC, id DESC);
+CREATE INDEX idx_chat_room_employee_activity ON chat_room (employee_id, last_modified_date DESC, id DESC);
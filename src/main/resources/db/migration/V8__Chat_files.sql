@@ -0,0 +1,14 @@
+-- Files attached to FILE messages. The content lives in the file store
+-- under its SHA-256, so identical uploads share one stored file
+CREATE TABLE chat_file (
+    id BIGSERIAL PRIMARY KEY,
+    room_id BIGINT NOT NULL REFERENCES chat_room(id),
+    uploaded_by VARCHAR(255) NOT NULL,
+    file_name VARCHAR(255) NOT NULL,
+    content_type VARCHAR(255) NOT NULL,
+    size BIGINT NOT NULL,
+    sha256 CHAR(64) NOT NULL,
+    created_date TIMESTAMP
+);
+
+CREATE INDEX idx_chat_file_room ON chat_file (room_id);
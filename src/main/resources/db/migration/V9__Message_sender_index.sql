@@ -0,0 +1,3 @@
+-- Finds a participant's newest message in a room with one backward index
+-- probe, where unread counting starts
+CREATE INDEX idx_chat_message_room_sender_id ON chat_message (room_id, sender_id, id);
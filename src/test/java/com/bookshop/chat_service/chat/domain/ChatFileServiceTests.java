@@ -0,0 +1,77 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatFileServiceTests {
+
+	// SHA-256 of "hello world"
+	private static final String HELLO_WORLD_SHA256 = "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+
+	@TempDir
+	Path directory;
+
+	private final ChatService chatService = mock(ChatService.class);
+	private final ChatFileRepository fileRepository = mock(ChatFileRepository.class);
+	private ChatFileStore fileStore;
+	private ChatFileService fileService;
+
+	@BeforeEach
+	void setUp() {
+		ChatProperties properties = new ChatProperties();
+		properties.getFiles().setDirectory(directory.toString());
+		fileStore = new ChatFileStore(properties);
+		fileService = new ChatFileService(chatService, fileRepository, fileStore,
+				new RepositoryMetrics(new SimpleMeterRegistry()));
+
+		when(chatService.getRoomSnapshot(anyLong())).thenReturn(Mono.just(ChatRoomSnapshot.builder()
+				.id(1L)
+				.status(ChatRoomStatus.OPEN)
+				.customerId("customer")
+				.build()));
+		when(fileRepository.save(any(ChatFile.class))).thenAnswer(invocation -> {
+			ChatFile file = invocation.getArgument(0);
+			file.setId(7L);
+			return Mono.just(file);
+		});
+		when(fileRepository.delete(any(ChatFile.class))).thenReturn(Mono.empty());
+	}
+
+	@Test
+	void removesRowButLeavesStoredFileToTheSweepWhenPostingFails() {
+		when(chatService.postMessage(any(), anyString())).thenReturn(Mono.error(new IllegalStateException("down")));
+
+		StepVerifier.create(upload())
+				.expectErrorMessage("down")
+				.verify();
+
+		verify(fileRepository).delete(any(ChatFile.class));
+		assertThat(fileStore.path(HELLO_WORLD_SHA256)).hasContent("hello world");
+	}
+
+	private Mono<ChatMessage> upload() {
+		Flux<DataBuffer> content = Flux.just(DefaultDataBufferFactory.sharedInstance
+				.wrap("hello world".getBytes(StandardCharsets.UTF_8)));
+		return fileService.upload(1L, "customer", SenderType.CUSTOMER, "hello.txt", MediaType.TEXT_PLAIN, content);
+	}
+}
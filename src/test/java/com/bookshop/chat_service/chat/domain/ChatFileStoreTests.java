@@ -0,0 +1,86 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatFileStoreTests {
+
+	// SHA-256 of "hello world"
+	private static final String HELLO_WORLD_SHA256 = "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+
+	@TempDir
+	Path directory;
+
+	private ChatFileStore store;
+
+	@BeforeEach
+	void setUp() {
+		ChatProperties properties = new ChatProperties();
+		properties.getFiles().setDirectory(directory.toString());
+		properties.getFiles().setMaxSize(DataSize.ofBytes(16));
+		store = new ChatFileStore(properties);
+	}
+
+	@Test
+	void storesChunkedContentUnderItsHash() throws Exception {
+		StepVerifier.create(store.store(chunks("hello", " ", "world")))
+				.expectNext(new ChatFileStore.StoredFile(HELLO_WORLD_SHA256, 11))
+				.verifyComplete();
+		StepVerifier.create(store.store(chunks("hello wor", "ld")))
+				.expectNext(new ChatFileStore.StoredFile(HELLO_WORLD_SHA256, 11))
+				.verifyComplete();
+
+		assertThat(store.path(HELLO_WORLD_SHA256)).hasContent("hello world");
+		assertThat(incomingFiles()).isZero();
+	}
+
+	@Test
+	void deletesOnlyFilesNotModifiedSinceTheCutoff() throws Exception {
+		store.store(chunks("hello world")).block();
+		Instant cutoff = Instant.now().minusSeconds(60);
+
+		assertThat(store.storedBefore(cutoff).collectList().block()).isEmpty();
+		assertThat(store.deleteIfModifiedBefore(HELLO_WORLD_SHA256, cutoff).block()).isFalse();
+
+		Files.setLastModifiedTime(store.path(HELLO_WORLD_SHA256), FileTime.from(cutoff.minusSeconds(60)));
+		assertThat(store.storedBefore(cutoff).collectList().block()).containsExactly(HELLO_WORLD_SHA256);
+		assertThat(store.deleteIfModifiedBefore(HELLO_WORLD_SHA256, cutoff).block()).isTrue();
+		assertThat(store.path(HELLO_WORLD_SHA256)).doesNotExist();
+	}
+
+	@Test
+	void rejectsContentOverTheMaximumSize() throws Exception {
+		StepVerifier.create(store.store(chunks("hello world", " and more")))
+				.expectError(ChatFileTooLargeException.class)
+				.verify();
+
+		assertThat(incomingFiles()).isZero();
+	}
+
+	private Flux<DataBuffer> chunks(String... chunks) {
+		return Flux.fromArray(chunks)
+				.map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private long incomingFiles() throws Exception {
+		try (Stream<Path> files = Files.list(directory.resolve("incoming"))) {
+			return files.count();
+		}
+	}
+}
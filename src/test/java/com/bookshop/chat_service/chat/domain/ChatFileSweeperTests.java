@@ -0,0 +1,87 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChatFileSweeperTests {
+
+	@TempDir
+	Path directory;
+
+	private final ChatFileRepository fileRepository = mock(ChatFileRepository.class);
+	private ChatFileStore fileStore;
+	private ChatFileSweeper sweeper;
+
+	@BeforeEach
+	void setUp() {
+		ChatProperties properties = new ChatProperties();
+		properties.getFiles().setDirectory(directory.toString());
+		properties.getFiles().setOrphanGrace(Duration.ofHours(1));
+		fileStore = new ChatFileStore(properties);
+		sweeper = new ChatFileSweeper(properties, fileStore, fileRepository,
+				new RepositoryMetrics(new SimpleMeterRegistry()), new SimpleMeterRegistry());
+
+		when(fileRepository.existsBySha256(anyString())).thenReturn(Mono.just(false));
+	}
+
+	@Test
+	void removesOldFilesThatNoRowRefersTo() throws Exception {
+		String orphan = store("orphan", Duration.ofHours(2));
+		String referenced = store("referenced", Duration.ofHours(2));
+		when(fileRepository.existsBySha256(referenced)).thenReturn(Mono.just(true));
+
+		assertThat(sweeper.sweep().block()).isEqualTo(1L);
+
+		assertThat(fileStore.path(orphan)).doesNotExist();
+		assertThat(fileStore.path(referenced)).hasContent("referenced");
+	}
+
+	@Test
+	void keepsFilesWithinTheGracePeriod() throws Exception {
+		String recent = store("recent", Duration.ofMinutes(5));
+
+		assertThat(sweeper.sweep().block()).isZero();
+
+		assertThat(fileStore.path(recent)).hasContent("recent");
+	}
+
+	@Test
+	void keepsOldFilesThatAreStoredAgain() throws Exception {
+		String reused = store("reused", Duration.ofHours(2));
+
+		// An upload of the same content that has not saved its row yet
+		store("reused", Duration.ZERO);
+
+		assertThat(sweeper.sweep().block()).isZero();
+		assertThat(fileStore.path(reused)).hasContent("reused");
+	}
+
+	private String store(String content, Duration age) throws Exception {
+		String sha256 = fileStore.store(Flux.just(DefaultDataBufferFactory.sharedInstance
+						.wrap(content.getBytes(StandardCharsets.UTF_8))))
+				.block()
+				.sha256();
+		if (!age.isZero()) {
+			Files.setLastModifiedTime(fileStore.path(sha256), FileTime.from(Instant.now().minus(age)));
+		}
+		return sha256;
+	}
+}
@@ -0,0 +1,82 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.TestcontainersConfiguration;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest(properties = "chat.archive.enabled=false")
+class ChatMessageArchiverTests {
+
+	@Autowired
+	private ChatMessageArchiver archiver;
+
+	@Autowired
+	private ChatService chatService;
+
+	@Autowired
+	private ChatMessageRepository messageRepository;
+
+	@Autowired
+	private DatabaseClient databaseClient;
+
+	@Test
+	void movesClosedRoomsIntoTheArchiveAndServesTheirHistoryFirst() {
+		Long roomId = closedRoom(Instant.now().minus(Duration.ofDays(60)));
+		send(roomId, "first");
+		send(roomId, "second");
+
+		archiver.archiveClosedRooms().block();
+
+		assertThat(messageRepository.findByRoomIdOrderByTimestamp(roomId).collectList().block()).isEmpty();
+		assertThat(history(roomId)).extracting(ChatMessage::getContent).containsExactly("first", "second");
+
+		send(roomId, "third");
+		assertThat(history(roomId)).extracting(ChatMessage::getContent).containsExactly("first", "second", "third");
+
+		archiver.archiveClosedRooms().block();
+		assertThat(history(roomId)).extracting(ChatMessage::getSeq).containsExactly(1L, 2L, 3L);
+	}
+
+	@Test
+	void leavesRecentlyClosedRoomsInPlace() {
+		Long roomId = closedRoom(Instant.now());
+		send(roomId, "still here");
+
+		archiver.archiveClosedRooms().block();
+
+		assertThat(messageRepository.findByRoomIdOrderByTimestamp(roomId).collectList().block())
+				.extracting(ChatMessage::getContent)
+				.containsExactly("still here");
+	}
+
+	private Long closedRoom(Instant closedAt) {
+		return databaseClient.sql("""
+						INSERT INTO chat_room (customer_id, status, created_date, last_modified_date, version)
+						VALUES ('archive-customer', 'CLOSED', :closedAt, :closedAt, 0)
+						RETURNING id
+						""")
+				.bind("closedAt", closedAt)
+				.map(row -> row.get("id", Long.class))
+				.one()
+				.block();
+	}
+
+	private void send(Long roomId, String content) {
+		messageRepository.insert(roomId, "archive-customer", SenderType.CUSTOMER.name(), content,
+				MessageType.TEXT.name(), Instant.now(), true).block();
+	}
+
+	private List<ChatMessage> history(Long roomId) {
+		return chatService.getRoomMessages(roomId).collectList().block();
+	}
+}
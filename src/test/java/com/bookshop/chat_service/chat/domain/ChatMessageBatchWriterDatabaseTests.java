@@ -0,0 +1,113 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.TestcontainersConfiguration;
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest
+class ChatMessageBatchWriterDatabaseTests {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	@Autowired
+	private DatabaseClient databaseClient;
+
+	@Autowired
+	private ChatMessageRepository messageRepository;
+
+	private ChatMessageBatchWriter writer;
+
+	@AfterEach
+	void tearDown() {
+		writer.stop();
+	}
+
+	@Test
+	void numbersEveryRoomOfAFullBatchInSendOrder() {
+		writer = writer(6, Duration.ofMinutes(1));
+		Long first = room();
+		Long second = room();
+		List<ChatMessage> sent = new ArrayList<>();
+		for (int i = 1; i <= 3; i++) {
+			sent.add(message(second, "second-" + i));
+			sent.add(message(first, "first-" + i));
+		}
+
+		// Far shorter than max-delay, so only reaching max-batch-size can have flushed it
+		List<ChatMessage> stored = Flux.fromIterable(sent)
+				.flatMapSequential(writer::insert)
+				.collectList()
+				.block(TIMEOUT);
+
+		assertThat(stored).extracting(ChatMessage::getContent)
+				.containsExactly("second-1", "first-1", "second-2", "first-2", "second-3", "first-3");
+		assertThat(stored).extracting(ChatMessage::getSeq).containsExactly(1L, 1L, 2L, 2L, 3L, 3L);
+		for (ChatMessage message : stored) {
+			ChatMessage row = messageRepository.findById(message.getId()).block(TIMEOUT);
+			assertThat(row.getContent()).isEqualTo(message.getContent());
+			assertThat(row.getRoomId()).isEqualTo(message.getRoomId());
+			assertThat(row.getSeq()).isEqualTo(message.getSeq());
+		}
+	}
+
+	@Test
+	void flushesAPartialBatchAfterTheDelay() {
+		writer = writer(100, Duration.ofMillis(50));
+		Long roomId = room();
+
+		ChatMessage stored = writer.insert(message(roomId, "alone")).block(TIMEOUT);
+
+		assertThat(stored.getSeq()).isEqualTo(1L);
+		assertThat(messageRepository.findById(stored.getId()).block(TIMEOUT).getContent()).isEqualTo("alone");
+	}
+
+	private ChatMessageBatchWriter writer(int maxBatchSize, Duration maxDelay) {
+		ChatProperties properties = new ChatProperties();
+		properties.getWriteBehind().setEnabled(true);
+		properties.getWriteBehind().setLanes(1);
+		properties.getWriteBehind().setMaxBatchSize(maxBatchSize);
+		properties.getWriteBehind().setMaxDelay(maxDelay);
+		ChatMessageBatchWriter started = new ChatMessageBatchWriter(properties, databaseClient,
+				new SimpleMeterRegistry());
+		started.start();
+		return started;
+	}
+
+	private Long room() {
+		return databaseClient.sql("""
+						INSERT INTO chat_room (customer_id, status, created_date, last_modified_date, version)
+						VALUES ('batch-customer', 'OPEN', LOCALTIMESTAMP, LOCALTIMESTAMP, 0)
+						RETURNING id
+						""")
+				.map(row -> row.get("id", Long.class))
+				.one()
+				.block(TIMEOUT);
+	}
+
+	private static ChatMessage message(Long roomId, String content) {
+		return ChatMessage.builder()
+				.roomId(roomId)
+				.senderId("batch-customer")
+				.senderType(SenderType.CUSTOMER)
+				.content(content)
+				.messageType(MessageType.TEXT)
+				.timestamp(Instant.now())
+				.read(false)
+				.build();
+	}
+}
@@ -0,0 +1,47 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ChatMessageBatchWriterTests {
+
+	private final ChatMessageBatchWriter writer = writer();
+
+	@Test
+	void rejectsInsertsBeforeStart() {
+		StepVerifier.create(writer.insert(message()))
+				.expectError(IllegalStateException.class)
+				.verify();
+	}
+
+	@Test
+	void rejectsInsertsAfterStop() {
+		writer.start();
+		writer.stop();
+
+		assertThat(writer.isRunning()).isFalse();
+		StepVerifier.create(writer.insert(message()))
+				.expectError(IllegalStateException.class)
+				.verify();
+	}
+
+	private static ChatMessageBatchWriter writer() {
+		ChatProperties properties = new ChatProperties();
+		properties.getWriteBehind().setEnabled(true);
+		return new ChatMessageBatchWriter(properties, mock(DatabaseClient.class), new SimpleMeterRegistry());
+	}
+
+	private static ChatMessage message() {
+		return ChatMessage.builder()
+				.roomId(1L)
+				.senderId("customer")
+				.content("hello")
+				.build();
+	}
+}
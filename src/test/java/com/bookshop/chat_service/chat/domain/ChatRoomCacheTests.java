@@ -0,0 +1,46 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatRoomCacheTests {
+
+	@Test
+	void keepsNewestVersionOfRoom() {
+		ChatRoomCache cache = new ChatRoomCache(new ChatProperties(), new SimpleMeterRegistry());
+
+		cache.put(room(1L, ChatRoomStatus.ASSIGNED, 2));
+		cache.put(room(1L, ChatRoomStatus.OPEN, 1));
+
+		assertThat(cache.get(1L).getStatus()).isEqualTo(ChatRoomStatus.ASSIGNED);
+		assertThat(cache.get(1L).getVersion()).isEqualTo(2);
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedRoomsWhenFull() {
+		ChatProperties properties = new ChatProperties();
+		properties.getRoomCache().setMaxSize(ChatRoomCache.SEGMENTS);
+		ChatRoomCache cache = new ChatRoomCache(properties, new SimpleMeterRegistry());
+
+		cache.put(room(1L, ChatRoomStatus.OPEN, 0));
+		cache.put(room(1L + ChatRoomCache.SEGMENTS, ChatRoomStatus.OPEN, 0));
+
+		assertThat(cache.get(1L)).isNull();
+		assertThat(cache.get(1L + ChatRoomCache.SEGMENTS)).isNotNull();
+		assertThat(cache.getStats().getEvictions()).isEqualTo(1);
+		assertThat(cache.getStats().getHits()).isEqualTo(1);
+		assertThat(cache.getStats().getMisses()).isEqualTo(1);
+	}
+
+	private ChatRoom room(Long id, ChatRoomStatus status, int version) {
+		return ChatRoom.builder()
+				.id(id)
+				.customerId("customer")
+				.status(status)
+				.version(version)
+				.build();
+	}
+}
@@ -0,0 +1,83 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecentMessageCacheTests {
+
+	private static final Long ROOM_ID = 1L;
+
+	@Test
+	void servesPagesOfRoomWithShortHistory() {
+		RecentMessageCache cache = cache(5);
+
+		List<ChatMessage> loaded = cache.fill(ROOM_ID, Flux.just(message(2), message(1))).collectList().block();
+		cache.append(message(3));
+
+		assertThat(ids(loaded)).containsExactly(1L, 2L);
+		assertThat(ids(cache.latest(ROOM_ID, 10))).containsExactly(1L, 2L, 3L);
+		assertThat(ids(cache.before(ROOM_ID, 3L, 10))).containsExactly(1L, 2L);
+		assertThat(ids(cache.after(ROOM_ID, 1L, 10))).containsExactly(2L, 3L);
+	}
+
+	@Test
+	void fallsBackOnceOlderMessagesWereDropped() {
+		RecentMessageCache cache = cache(3);
+
+		cache.fill(ROOM_ID, Flux.just(message(3), message(2), message(1))).blockLast();
+		cache.append(message(4));
+
+		assertThat(ids(cache.latest(ROOM_ID, 3))).containsExactly(2L, 3L, 4L);
+		assertThat(cache.latest(ROOM_ID, 4)).isNull();
+		assertThat(ids(cache.before(ROOM_ID, 4L, 2))).containsExactly(2L, 3L);
+		assertThat(cache.before(ROOM_ID, 3L, 2)).isNull();
+	}
+
+	@Test
+	void dropsTheRingWhenAnAppendedSeqSkipsAMessage() {
+		RecentMessageCache cache = cache(5);
+
+		cache.fill(ROOM_ID, Flux.just(message(2), message(1))).blockLast();
+		cache.append(message(4));
+
+		assertThat(cache.latest(ROOM_ID, 10)).isNull();
+		assertThat(cache.after(ROOM_ID, 2L, 10)).isNull();
+	}
+
+	@Test
+	void ignoresRoomsThatWereNeverOpened() {
+		RecentMessageCache cache = cache(3);
+
+		cache.append(message(1));
+
+		assertThat(cache.latest(ROOM_ID, 1)).isNull();
+	}
+
+	private RecentMessageCache cache(int perRoom) {
+		ChatProperties properties = new ChatProperties();
+		properties.getRecentMessages().setPerRoom(perRoom);
+		return new RecentMessageCache(properties, new SimpleMeterRegistry());
+	}
+
+	private ChatMessage message(long id) {
+		return ChatMessage.builder()
+				.id(id)
+				.roomId(ROOM_ID)
+				.seq(id)
+				.senderId("customer")
+				.content("message " + id)
+				.timestamp(Instant.ofEpochSecond(1_700_000_000L + id))
+				.build();
+	}
+
+	private List<Long> ids(List<ChatMessage> messages) {
+		return messages.stream().map(ChatMessage::getId).toList();
+	}
+}
@@ -0,0 +1,114 @@
+package com.bookshop.chat_service.chat.domain;
+
+import com.bookshop.chat_service.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RoomAssignmentEngineTests {
+
+	private final ChatService chatService = mock(ChatService.class);
+	private RoomAssignmentEngine engine;
+
+	@BeforeEach
+	void setUp() {
+		when(chatService.roomUpdates()).thenReturn(Flux.never());
+		when(chatService.getOpenRooms()).thenReturn(Flux.empty());
+		when(chatService.getEmployeeRooms(anyString())).thenReturn(Flux.empty());
+		when(chatService.assignOpenRoom(anyLong(), anyString())).thenAnswer(invocation -> Mono.just(
+				room(invocation.getArgument(0), ChatRoomStatus.ASSIGNED, invocation.getArgument(1))));
+
+		ChatProperties properties = new ChatProperties();
+		properties.getAssignment().setCapacity(1);
+		engine = new RoomAssignmentEngine(properties, chatService, new SimpleMeterRegistry(),
+				VirtualTimeScheduler.create());
+		engine.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		engine.stop();
+	}
+
+	@Test
+	void assignsOldestRoomsToFreeEmployeesAndWaitsForCapacity() {
+		engine.employeeConnected("employee-1");
+		engine.employeeConnected("employee-2");
+
+		engine.roomChanged(room(1L, ChatRoomStatus.OPEN, null));
+		engine.roomChanged(room(2L, ChatRoomStatus.OPEN, null));
+		engine.roomChanged(room(3L, ChatRoomStatus.OPEN, null));
+
+		ArgumentCaptor<String> firstEmployee = ArgumentCaptor.forClass(String.class);
+		ArgumentCaptor<String> secondEmployee = ArgumentCaptor.forClass(String.class);
+		verify(chatService).assignOpenRoom(eq(1L), firstEmployee.capture());
+		verify(chatService).assignOpenRoom(eq(2L), secondEmployee.capture());
+		verify(chatService, never()).assignOpenRoom(eq(3L), any());
+		assertThat(firstEmployee.getValue()).isNotEqualTo(secondEmployee.getValue());
+		assertThat(engine.waitingRooms()).isEqualTo(1);
+
+		engine.roomChanged(room(1L, ChatRoomStatus.CLOSED, firstEmployee.getValue()));
+
+		verify(chatService).assignOpenRoom(3L, firstEmployee.getValue());
+		assertThat(engine.waitingRooms()).isZero();
+	}
+
+	@Test
+	void releasesReservationWhenRoomWasTakenMeanwhile() {
+		when(chatService.assignOpenRoom(eq(1L), anyString())).thenReturn(Mono.empty());
+		engine.employeeConnected("employee-1");
+
+		engine.roomChanged(room(1L, ChatRoomStatus.OPEN, null));
+		engine.roomChanged(room(2L, ChatRoomStatus.OPEN, null));
+
+		verify(chatService).assignOpenRoom(2L, "employee-1");
+	}
+
+	@Test
+	void ignoresDisconnectedEmployees() {
+		engine.employeeConnected("employee-1");
+		engine.employeeDisconnected("employee-1");
+
+		engine.roomChanged(room(1L, ChatRoomStatus.OPEN, null));
+
+		verify(chatService, never()).assignOpenRoom(anyLong(), anyString());
+		assertThat(engine.waitingRooms()).isEqualTo(1);
+	}
+
+	@Test
+	void assignsRoomsOpenedThroughAnotherNode() {
+		when(chatService.getChatRoom(4L)).thenReturn(Mono.just(room(4L, ChatRoomStatus.OPEN, null)));
+		engine.employeeConnected("employee-1");
+
+		engine.remoteRoomChanged(4L);
+
+		verify(chatService).assignOpenRoom(4L, "employee-1");
+	}
+
+	private ChatRoom room(Long id, ChatRoomStatus status, String employeeId) {
+		return ChatRoom.builder()
+				.id(id)
+				.customerId("customer-" + id)
+				.employeeId(employeeId)
+				.status(status)
+				.createdDate(Instant.ofEpochSecond(id))
+				.build();
+	}
+}
@@ -0,0 +1,69 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.chat.domain.MessageType;
+import com.bookshop.chat_service.chat.domain.SenderType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryWebSocketCodecTests {
+
+	private final BinaryWebSocketCodec codec = new BinaryWebSocketCodec();
+
+	@Test
+	void roundTripsNewMessage() throws IOException {
+		WebSocketMessage message = new WebSocketMessage();
+		message.setType("NEW_MESSAGE");
+		message.setRoomId(42L);
+		message.setMessageId(1_000_000_007L);
+		message.setSenderId("customer-1");
+		message.setSenderType(SenderType.CUSTOMER);
+		message.setMessageType(MessageType.TEXT);
+		message.setContent("Xin chào, is this book in stock?");
+		message.setTimestamp(Instant.parse("2025-01-02T03:04:05.123456Z"));
+		message.setSeq(17L);
+
+		assertThat(roundTrip(message)).isEqualTo(message);
+	}
+
+	@Test
+	void roundTripsTypingFlagAndUnknownType() throws IOException {
+		WebSocketMessage message = new WebSocketMessage();
+		message.setType("SOMETHING_NEW");
+		message.setRoomId(7L);
+		message.setIsTyping(false);
+		message.setTypingUserId("employee-3");
+
+		assertThat(roundTrip(message)).isEqualTo(message);
+	}
+
+	@Test
+	void rejectsTruncatedFrame() throws IOException {
+		WebSocketMessage message = new WebSocketMessage();
+		message.setType("SEND_MESSAGE");
+		message.setContent("hello");
+		byte[] bytes = encode(message);
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+
+		assertThatThrownBy(() -> codec.decode(new ByteArrayInputStream(truncated)))
+				.isInstanceOf(EOFException.class);
+	}
+
+	private WebSocketMessage roundTrip(WebSocketMessage message) throws IOException {
+		return codec.decode(new ByteArrayInputStream(encode(message)));
+	}
+
+	private byte[] encode(WebSocketMessage message) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.encode(message, out);
+		return out.toByteArray();
+	}
+}
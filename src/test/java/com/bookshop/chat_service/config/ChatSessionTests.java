@@ -0,0 +1,106 @@
+package com.bookshop.chat_service.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChatSessionTests {
+
+	private final ChatWebSocketMetrics metrics = new ChatWebSocketMetrics(new SimpleMeterRegistry());
+	private final WebSocketCodec codec = new WebSocketCodecs(Jackson2ObjectMapperBuilder.json().build())
+			.negotiated(null);
+	private final List<String> sent = new ArrayList<>();
+
+	private ChatSession session;
+	private Disposable drain;
+
+	@BeforeEach
+	void setUp() {
+		WebSocketSession webSocketSession = mock(WebSocketSession.class);
+		when(webSocketSession.isOpen()).thenReturn(true);
+		session = new ChatSession("customer", webSocketSession, codec, new ChatProperties().getOutbound(), metrics);
+		drain = session.getOutbound().frames().subscribe(frame -> {
+			try {
+				WebSocketMessage message = codec.decode(frame.getPayload().asInputStream());
+				sent.add(message.getType() + ":" + message.getRoomId() + ":" + message.getSeq());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				DataBufferUtils.release(frame.getPayload());
+			}
+		});
+	}
+
+	@AfterEach
+	void tearDown() {
+		drain.dispose();
+	}
+
+	@Test
+	void holdsLiveMessagesBackUntilTheReplayEnds() {
+		assertThat(session.beginResume(1L)).isTrue();
+		assertThat(session.beginResume(1L)).isFalse();
+
+		live(newMessage(1L, 5L));
+		live(newMessage(2L, 9L));
+		session.sendDirect(newMessage(1L, 3L));
+		live(newMessage(1L, 4L));
+		session.sendDirect(newMessage(1L, 4L));
+
+		assertThat(sent).containsExactly("NEW_MESSAGE:2:9", "NEW_MESSAGE:1:3", "NEW_MESSAGE:1:4");
+
+		assertThat(session.endResume(1L, 4L, marker("RESUMED", 1L))).isEqualTo(5L);
+		live(newMessage(1L, 6L));
+
+		assertThat(sent).containsExactly("NEW_MESSAGE:2:9", "NEW_MESSAGE:1:3", "NEW_MESSAGE:1:4",
+				"NEW_MESSAGE:1:5", "RESUMED:1:5", "NEW_MESSAGE:1:6");
+	}
+
+	@Test
+	void dropsHeldBackMessagesWhenTheResumeIsReset() {
+		session.beginResume(1L);
+		live(newMessage(1L, 5L));
+
+		session.abortResume(1L, marker("RESUME_RESET", 1L));
+		live(newMessage(1L, 6L));
+
+		assertThat(sent).containsExactly("RESUME_RESET:1:null", "NEW_MESSAGE:1:6");
+		assertThat(session.beginResume(1L)).isTrue();
+	}
+
+	private void live(WebSocketMessage message) {
+		BroadcastFrame frame = new BroadcastFrame(message, metrics);
+		try {
+			session.send(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	private static WebSocketMessage newMessage(Long roomId, Long seq) {
+		WebSocketMessage message = marker("NEW_MESSAGE", roomId);
+		message.setSeq(seq);
+		return message;
+	}
+
+	private static WebSocketMessage marker(String type, Long roomId) {
+		WebSocketMessage message = new WebSocketMessage();
+		message.setType(type);
+		message.setRoomId(roomId);
+		return message;
+	}
+}
@@ -0,0 +1,90 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.config.InboundRateLimiter.Verdict;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InboundRateLimiterTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void admitsTheBurstThenRejectsPerFrameType() {
+		InboundRateLimiter limiter = limiter(new ChatProperties());
+		InboundRateLimiter.SessionLimits limits = limiter.session("customer");
+
+		for (int i = 0; i < 10; i++) {
+			assertThat(limiter.admit(limits, "SEND_MESSAGE")).isEqualTo(Verdict.ACCEPTED);
+		}
+		assertThat(limiter.admit(limits, "SEND_MESSAGE")).isEqualTo(Verdict.REJECTED);
+		assertThat(limiter.admit(limits, "TYPING")).isEqualTo(Verdict.ACCEPTED);
+		assertThat(meterRegistry.counter("chat.websocket.inbound.rejected", "type", "SEND_MESSAGE").count())
+				.isEqualTo(1);
+	}
+
+	@Test
+	void sharesUserLimitsAcrossSessions() {
+		ChatProperties properties = new ChatProperties();
+		properties.getRateLimit().setSendMessage(new ChatProperties.FrameLimit(1, 3, 1, 4));
+		InboundRateLimiter limiter = limiter(properties);
+		InboundRateLimiter.SessionLimits firstTab = limiter.session("customer");
+		InboundRateLimiter.SessionLimits secondTab = limiter.session("customer");
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(limiter.admit(firstTab, "SEND_MESSAGE")).isEqualTo(Verdict.ACCEPTED);
+		}
+		assertThat(limiter.admit(secondTab, "SEND_MESSAGE")).isEqualTo(Verdict.ACCEPTED);
+		assertThat(limiter.admit(secondTab, "SEND_MESSAGE")).isEqualTo(Verdict.REJECTED);
+
+		limiter.release(firstTab);
+		InboundRateLimiter.SessionLimits thirdTab = limiter.session("customer");
+		assertThat(limiter.admit(thirdTab, "SEND_MESSAGE")).isEqualTo(Verdict.REJECTED);
+
+		limiter.release(secondTab);
+		limiter.release(thirdTab);
+		assertThat(limiter.admit(limiter.session("customer"), "SEND_MESSAGE")).isEqualTo(Verdict.ACCEPTED);
+	}
+
+	@Test
+	void takesBackReleasedTokens() {
+		TokenBucket bucket = new TokenBucket(1, 1);
+		long now = System.nanoTime();
+
+		assertThat(bucket.tryAcquire(now)).isTrue();
+		assertThat(bucket.tryAcquire(now)).isFalse();
+		bucket.release();
+		assertThat(bucket.tryAcquire(now)).isTrue();
+	}
+
+	@Test
+	void rejectsRatesThatAreNotPositive() {
+		ChatProperties properties = new ChatProperties();
+		properties.getRateLimit().setTyping(new ChatProperties.FrameLimit(0, 1, 1, 1));
+
+		assertThatThrownBy(() -> limiter(properties)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void reportsSessionsThatKeepExceedingTheLimit() {
+		ChatProperties properties = new ChatProperties();
+		properties.getRateLimit().setTyping(new ChatProperties.FrameLimit(1, 1, 1, 1));
+		properties.getRateLimit().setMaxViolations(2);
+		properties.getRateLimit().setViolationWindow(Duration.ofMinutes(1));
+		InboundRateLimiter limiter = limiter(properties);
+		InboundRateLimiter.SessionLimits limits = limiter.session("customer");
+
+		assertThat(limiter.admit(limits, "TYPING")).isEqualTo(Verdict.ACCEPTED);
+		assertThat(limiter.admit(limits, "TYPING")).isEqualTo(Verdict.REJECTED);
+		assertThat(limiter.admit(limits, "TYPING")).isEqualTo(Verdict.REJECTED);
+		assertThat(limiter.admit(limits, "TYPING")).isEqualTo(Verdict.ABUSIVE);
+	}
+
+	private InboundRateLimiter limiter(ChatProperties properties) {
+		return new InboundRateLimiter(properties, meterRegistry);
+	}
+}
@@ -0,0 +1,59 @@
+package com.bookshop.chat_service.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoomLanesTests {
+
+	private final RoomLanes lanes = new RoomLanes(new SimpleMeterRegistry());
+
+	@Test
+	void runsWorkOfOneRoomInOrderAndOtherRoomsAlongside() {
+		List<String> events = new CopyOnWriteArrayList<>();
+		Sinks.Empty<Void> firstSaved = Sinks.empty();
+
+		lanes.submit(1L, () -> firstSaved.asMono().doOnSuccess(v -> events.add("room1-first"))).subscribe();
+		lanes.submit(1L, () -> Mono.fromRunnable(() -> events.add("room1-second"))).subscribe();
+		lanes.submit(2L, () -> Mono.fromRunnable(() -> events.add("room2"))).subscribe();
+
+		assertThat(events).containsExactly("room2");
+		assertThat(lanes.activeLanes()).isEqualTo(1);
+
+		firstSaved.tryEmitEmpty();
+
+		assertThat(events).containsExactly("room2", "room1-first", "room1-second");
+		assertThat(lanes.activeLanes()).isZero();
+	}
+
+	@Test
+	void keepsTheLaneRunningAfterFailedWork() {
+		StepVerifier.create(lanes.submit(1L, () -> Mono.error(new IllegalStateException("boom"))))
+				.expectError(IllegalStateException.class)
+				.verify();
+
+		StepVerifier.create(lanes.submit(1L, Mono::empty))
+				.verifyComplete();
+		assertThat(lanes.activeLanes()).isZero();
+	}
+
+	@Test
+	void skipsWorkCancelledWhileWaiting() {
+		List<String> events = new CopyOnWriteArrayList<>();
+		Sinks.Empty<Void> blocker = Sinks.empty();
+
+		lanes.submit(1L, blocker::asMono).subscribe();
+		lanes.submit(1L, () -> Mono.fromRunnable(() -> events.add("cancelled"))).subscribe().dispose();
+		blocker.tryEmitEmpty();
+
+		assertThat(events).isEmpty();
+		assertThat(lanes.activeLanes()).isZero();
+	}
+}
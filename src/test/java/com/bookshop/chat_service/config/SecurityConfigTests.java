@@ -0,0 +1,35 @@
+package com.bookshop.chat_service.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.resource.authentication.BearerTokenAuthenticationToken;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SecurityConfigTests {
+
+	private final ServerAuthenticationConverter converter = SecurityConfig.bearerTokenConverter();
+
+	@Test
+	void takesTheTokenFromTheQueryOnTheChatEndpoint() {
+		assertThat(token(MockServerHttpRequest.get("/ws/chats?userId=employee&access_token=abc").build()))
+				.isEqualTo("abc");
+	}
+
+	@Test
+	void takesTheTokenOnlyFromTheHeaderElsewhere() {
+		assertThat(token(MockServerHttpRequest.get("/chats/rooms?access_token=abc").build())).isNull();
+		assertThat(token(MockServerHttpRequest.get("/chats/rooms")
+				.header("Authorization", "Bearer abc")
+				.build()))
+				.isEqualTo("abc");
+	}
+
+	private String token(MockServerHttpRequest request) {
+		Authentication authentication = converter.convert(MockServerWebExchange.from(request)).block();
+		return authentication instanceof BearerTokenAuthenticationToken bearer ? bearer.getToken() : null;
+	}
+}
@@ -0,0 +1,84 @@
+package com.bookshop.chat_service.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SessionHeartbeatTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final Timer timer = mock(Timer.class);
+	private final WebSocketSession webSocketSession = mock(WebSocketSession.class);
+	private final ChatSession session = mock(ChatSession.class);
+
+	SessionHeartbeatTests() {
+		when(timer.newTimeout(any(), anyLong(), any())).thenReturn(mock(Timeout.class));
+		when(webSocketSession.close(any())).thenReturn(Mono.empty());
+		when(session.isOpen()).thenReturn(true);
+		when(session.getSession()).thenReturn(webSocketSession);
+	}
+
+	@Test
+	void pingsSilentSessionsAndKeepsWatching() throws Exception {
+		SessionHeartbeat heartbeat = heartbeat(Duration.ofNanos(1), Duration.ofHours(1));
+		heartbeat.watch(session);
+
+		fireNext(1);
+
+		verify(session).ping();
+		verify(webSocketSession, never()).close(any());
+		verify(timer, times(2)).newTimeout(any(), anyLong(), any());
+	}
+
+	@Test
+	void closesSessionsSilentForTheIdleTimeout() throws Exception {
+		SessionHeartbeat heartbeat = heartbeat(Duration.ofNanos(1), Duration.ofNanos(1));
+		heartbeat.watch(session);
+
+		fireNext(1);
+
+		verify(webSocketSession).close(SessionHeartbeat.IDLE_TIMEOUT);
+		assertThat(meterRegistry.counter("chat.websocket.sessions.reaped").count()).isEqualTo(1);
+	}
+
+	@Test
+	void stopsWatchingCancelledSessions() throws Exception {
+		SessionHeartbeat heartbeat = heartbeat(Duration.ofNanos(1), Duration.ofNanos(1));
+		heartbeat.watch(session).cancel();
+
+		fireNext(1);
+
+		verify(session, never()).ping();
+		verify(webSocketSession, never()).close(any());
+	}
+
+	private SessionHeartbeat heartbeat(Duration pingInterval, Duration idleTimeout) {
+		WebSocketProperties properties = new WebSocketProperties();
+		properties.setPingInterval(pingInterval);
+		properties.setMaxSessionIdleTimeout(idleTimeout);
+		return new SessionHeartbeat(properties, timer, new ChatWebSocketMetrics(meterRegistry));
+	}
+
+	private void fireNext(int scheduled) throws Exception {
+		ArgumentCaptor<TimerTask> task = ArgumentCaptor.forClass(TimerTask.class);
+		verify(timer, times(scheduled)).newTimeout(task.capture(), anyLong(), any(TimeUnit.class));
+		task.getValue().run(null);
+	}
+}
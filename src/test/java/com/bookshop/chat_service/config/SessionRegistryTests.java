@@ -0,0 +1,93 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.chat.domain.ChatRoomSnapshot;
+import com.bookshop.chat_service.chat.domain.ChatRoomStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SessionRegistryTests {
+
+	private final ChatWebSocketMetrics metrics = new ChatWebSocketMetrics(new SimpleMeterRegistry());
+	private final WebSocketCodecs codecs = new WebSocketCodecs(Jackson2ObjectMapperBuilder.json().build());
+	private final SessionRegistry registry = new SessionRegistry(new SimpleMeterRegistry());
+
+	@Test
+	void deliversToEverySessionOfAParticipant() {
+		ChatSession firstTab = session("employee");
+		ChatSession secondTab = session("employee");
+		ChatSession customer = session("customer");
+		registry.register(firstTab);
+		registry.register(secondTab);
+		registry.register(customer);
+
+		assertThat(registry.index(room(1L, ChatRoomStatus.ASSIGNED, "employee")))
+				.containsExactlyInAnyOrder(firstTab, secondTab, customer);
+
+		assertThat(registry.unregister(firstTab)).isFalse();
+		assertThat(registry.roomSessions(1L)).containsExactlyInAnyOrder(secondTab, customer);
+	}
+
+	@Test
+	void addsSessionsThatConnectAfterTheRoomWasIndexed() {
+		registry.register(session("customer"));
+		registry.index(room(1L, ChatRoomStatus.OPEN, null));
+
+		ChatSession employee = session("employee");
+		registry.register(employee);
+		registry.roomChanged(room(1L, ChatRoomStatus.ASSIGNED, "employee"));
+
+		assertThat(registry.roomSessions(1L)).contains(employee);
+
+		ChatSession secondTab = session("employee");
+		registry.register(secondTab);
+		assertThat(registry.roomSessions(1L)).contains(employee, secondTab);
+	}
+
+	@Test
+	void dropsRoomsWhenClosedOrLeftByTheLastSession() {
+		ChatSession customer = session("customer");
+		registry.register(customer);
+		registry.index(room(1L, ChatRoomStatus.OPEN, null));
+		registry.index(room(2L, ChatRoomStatus.OPEN, null));
+
+		registry.roomChanged(room(1L, ChatRoomStatus.CLOSED, null));
+		assertThat(registry.roomSessions(1L)).isNull();
+
+		assertThat(registry.unregister(customer)).isTrue();
+		assertThat(registry.roomSessions(2L)).isNull();
+	}
+
+	@Test
+	void prunesSessionsThatClosedWithoutLeavingTheRoom() {
+		ChatSession customer = session("customer");
+		registry.register(customer);
+		registry.index(room(1L, ChatRoomStatus.OPEN, null));
+
+		when(customer.getSession().isOpen()).thenReturn(false);
+
+		assertThat(registry.roomSessions(1L)).isEmpty();
+		assertThat(registry.roomSessions(1L)).isNull();
+	}
+
+	private ChatSession session(String userId) {
+		WebSocketSession webSocketSession = mock(WebSocketSession.class);
+		when(webSocketSession.isOpen()).thenReturn(true);
+		return new ChatSession(userId, webSocketSession, codecs.negotiated(null), new ChatProperties().getOutbound(),
+				metrics);
+	}
+
+	private ChatRoomSnapshot room(Long id, ChatRoomStatus status, String employeeId) {
+		return ChatRoomSnapshot.builder()
+				.id(id)
+				.status(status)
+				.customerId("customer")
+				.employeeId(employeeId)
+				.build();
+	}
+}
@@ -0,0 +1,69 @@
+package com.bookshop.chat_service.config;
+
+import com.bookshop.chat_service.TestcontainersConfiguration;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = {
+				"websocket.compression=true",
+				"websocket.max-text-message-buffer-size=1024",
+				"websocket.max-binary-message-buffer-size=4096"
+		})
+class WebSocketConfigTests {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	@LocalServerPort
+	private int port;
+
+	@Test
+	void negotiatesPermessageDeflateWhenCompressionIsEnabled() {
+		// compress(true) offers "Sec-WebSocket-Extensions: permessage-deflate" in the handshake
+		String extensions = HttpClient.create()
+				.websocket(WebsocketClientSpec.builder().compress(true).build())
+				.uri(uri())
+				.handle((in, out) -> Mono.justOrEmpty(in.headers().get(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS)))
+				.blockLast(TIMEOUT);
+
+		assertThat(extensions).startsWith("permessage-deflate");
+	}
+
+	@Test
+	void closesWithTooBigWhenATextFrameExceedsTheTextLimit() {
+		// Above the text limit only, so the handler rejects it
+		assertThat(closeStatusAfterSending(2048).code()).isEqualTo(1009);
+	}
+
+	@Test
+	void closesWithTooBigWhenAFrameExceedsTheNettyLimit() {
+		// Above both limits, so Netty rejects it before it reaches the handler
+		assertThat(closeStatusAfterSending(8192).code()).isEqualTo(1009);
+	}
+
+	private WebSocketCloseStatus closeStatusAfterSending(int length) {
+		return HttpClient.create()
+				.websocket()
+				.uri(uri())
+				.handle((in, out) -> out.sendString(Mono.just("x".repeat(length)))
+						.then()
+						.then(in.receiveCloseStatus()))
+				.blockLast(TIMEOUT);
+	}
+
+	private String uri() {
+		return "ws://localhost:" + port + "/ws/chats?userId=config-customer";
+	}
+}